@@ -8,6 +8,9 @@
 plugins {
     // Apply the application plugin to add support for building a CLI application in Java.
     application
+
+    // Benchmarks in src/jmh, run with `./gradlew jmh`.
+    alias(libs.plugins.jmh)
 }
 
 repositories {
@@ -34,6 +37,50 @@ java {
 
 application {
     mainClass = "com.craftinginterpreters.lox.Lox"
+
+    // Map classes from an AppCDS archive next to the jars, recording it on
+    // the first run if `cdsArchive` hasn't already. The start scripts
+    // substitute the install directory for APP_HOME_DIR.
+    applicationDefaultJvmArgs = listOf(
+        "-XX:+AutoCreateSharedArchive",
+        "-XX:SharedArchiveFile=APP_HOME_DIR/lib/jlox.jsa",
+    )
+}
+
+tasks.startScripts {
+    doLast {
+        unixScript.writeText(unixScript.readText().replace("APP_HOME_DIR", "'\"\$APP_HOME\"'"))
+        windowsScript.writeText(windowsScript.readText().replace("APP_HOME_DIR", "%APP_HOME%"))
+    }
+}
+
+// Records the AppCDS archive for the installed distribution by running a
+// script that loads the scanner, parser, resolver and interpreter classes.
+val cdsArchive by tasks.registering(Exec::class) {
+    group = "distribution"
+    description = "Records an AppCDS archive of the jlox classes in the installed distribution."
+    dependsOn(tasks.installDist)
+
+    val training = layout.projectDirectory.file("src/cds/training.lox")
+    val lib = tasks.installDist.map { it.destinationDir.resolve("lib") }
+    val launcher = javaToolchains.launcherFor(project.java.toolchain)
+    inputs.file(training)
+    outputs.file(lib.map { it.resolve("jlox.jsa") })
+
+    doFirst {
+        // The class path must match the start scripts' for the archive to be used.
+        val classpath = tasks.startScripts.get().classpath!!.joinToString(File.pathSeparator) {
+            lib.get().resolve(it.name).path
+        }
+        lib.get().resolve("jlox.jsa").delete()
+        commandLine(
+            launcher.get().executablePath.asFile.path,
+            "-XX:ArchiveClassesAtExit=" + lib.get().resolve("jlox.jsa").path,
+            "-cp", classpath,
+            application.mainClass.get(),
+            training.asFile.path,
+        )
+    }
 }
 
 tasks.named<Test>("test") {
@@ -0,0 +1,85 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times the front end on a generated script of a few megabytes: scanning,
+ * parsing eagerly and lazily, and the whole of scan, parse and resolve.
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    // About 600 bytes of source per function.
+    @Param({"8000"})
+    public int functions;
+
+    private String source;
+    private List<Token> tokens;
+
+    @Setup
+    public void setUp() {
+        source = generate(functions);
+        tokens = new Scanner(source, new ErrorReporter()).scanTokens();
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source, new ErrorReporter()).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens, new ErrorReporter()).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> parseLazy() {
+        return new Parser(tokens, true, new ErrorReporter()).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> compile() {
+        return Lox.compile(source, new Resolver(), Paths.get("<benchmark>"));
+    }
+
+    /** A script with one class and one expression-heavy function per step. */
+    private static String generate(int functions) {
+        var source = new StringBuilder("""
+                class Base {
+                  init(w, h) { this.w = w; this.h = h; }
+                  area() { return this.w * this.h; }
+                }
+                fun f0(a, b, c) { return a; }
+                """);
+        for (var i = 1; i <= functions; i++) {
+            source.append("""
+                    class Shape%1$d < Base {
+                      area() { return super.area() + %1$d; }
+                    }
+                    fun f%1$d(a, b, c) {
+                      var x = a * (b + c) - %1$d / (a - -b);
+                      if (x > 10 and !(a == b) or c != nil) {
+                        x = x + f%2$d(a, b, c);
+                      }
+                      for (var k = 0; k < 10; k = k + 1) {
+                        x = x + k * 2 - (k / 3) * (x >= k);
+                      }
+                      var shape = Shape%1$d(a, b);
+                      shape.w = shape.h = x;
+                      print "value " + shape.area();
+                      return x;
+                    }
+                    """.formatted(i, i - 1));
+        }
+        return source.toString();
+    }
+}
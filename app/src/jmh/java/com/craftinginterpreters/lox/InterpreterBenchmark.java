@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the tree-walking interpreter with the bytecode VM on a call-heavy
+ * and a loop-heavy function. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    private static final String SOURCE = """
+            fun fib(n) {
+              if (n < 2) return n;
+              return fib(n - 1) + fib(n - 2);
+            }
+
+            fun sum(n) {
+              var total = 0;
+              for (var i = 0; i < n; i = i + 1) {
+                total = total + i * 2;
+              }
+              return total;
+            }
+            """;
+
+    private static final Token PAREN = new Token(TokenType.RIGHT_PAREN, ")", null, 1);
+
+    @Param({"ast", "bytecode"})
+    public String engine;
+
+    private Interpreter interpreter;
+    private Object fib;
+    private Object sum;
+
+    @Setup
+    public void setUp() {
+        Lox.bytecode = engine.equals("bytecode");
+        interpreter = new Interpreter();
+        interpreter.interpret(new Module(Paths.get("<benchmark>"),
+                Lox.compile(SOURCE, new Resolver(), Paths.get("<benchmark>"))));
+        fib = interpreter.globals.get(new Token(TokenType.IDENTIFIER, "fib", null, 1));
+        sum = interpreter.globals.get(new Token(TokenType.IDENTIFIER, "sum", null, 1));
+    }
+
+    @Benchmark
+    public Object fib() {
+        return interpreter.call(PAREN, fib, List.of(20.0));
+    }
+
+    @Benchmark
+    public Object loop() {
+        return interpreter.call(PAREN, sum, List.of(100000.0));
+    }
+}
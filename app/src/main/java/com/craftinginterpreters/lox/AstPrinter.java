@@ -1,13 +1,147 @@
 package com.craftinginterpreters.lox;
 
-class AstPrinter implements Expr.Visitor<String> {
+import java.util.List;
+
+/**
+ * Prints syntax trees as parenthesized prefix expressions, one top-level
+ * statement per line, so tests can compare what the parser built as text.
+ */
+class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor {
+    private final StringBuilder line = new StringBuilder();
+
     String print(Expr expr) {
         return expr.accept(this);
     }
 
+    String print(Stmt stmt) {
+        line.setLength(0);
+        append(stmt);
+        return line.toString();
+    }
+
+    String print(List<Stmt> statements) {
+        var lines = new StringBuilder();
+        for (var statement : statements) {
+            lines.append(print(statement)).append("\n");
+        }
+        return lines.toString();
+    }
+
+    @Override
+    public void visit(Stmt.Expression stmt) {
+        line.append(parenthesize(";", stmt.expr()));
+    }
+
+    @Override
+    public void visit(Stmt.If stmt) {
+        line.append("(if ").append(print(stmt.test())).append(" ");
+        append(stmt.then());
+        if (stmt._else() != null) {
+            line.append(" ");
+            append(stmt._else());
+        }
+        line.append(")");
+    }
+
+    @Override
+    public void visit(Stmt.Block stmt) {
+        line.append("(block");
+        for (var statement : stmt.statements()) {
+            line.append(" ");
+            append(statement);
+        }
+        line.append(")");
+    }
+
+    @Override
+    public void visit(Stmt.Class stmt) {
+        line.append("(class ").append(stmt.name().lexeme());
+        if (stmt.superclass() != null) {
+            line.append(" < ").append(print(stmt.superclass()));
+        }
+        for (var method : stmt.methods()) {
+            line.append(" ");
+            append(method);
+        }
+        line.append(")");
+    }
+
+    @Override
+    public void visit(Stmt.Function stmt) {
+        line.append("(fun ").append(stmt.name().lexeme()).append("(");
+        for (var i = 0; i < stmt.params().size(); i++) {
+            if (i > 0) line.append(" ");
+            line.append(stmt.params().get(i).lexeme());
+        }
+        line.append(")");
+        for (var statement : stmt.body()) {
+            line.append(" ");
+            append(statement);
+        }
+        line.append(")");
+    }
+
+    @Override
+    public void visit(Stmt.Import stmt) {
+        line.append("(import ").append(stmt.path().lexeme()).append(")");
+    }
+
+    @Override
+    public void visit(Stmt.Print stmt) {
+        line.append(parenthesize("print", stmt.expr()));
+    }
+
+    @Override
+    public void visit(Stmt.Return stmt) {
+        if (stmt.value() == null) {
+            line.append("(return)");
+        } else {
+            line.append(parenthesize("return", stmt.value()));
+        }
+    }
+
+    @Override
+    public void visit(Stmt.Var stmt) {
+        if (stmt.expr() == null) {
+            line.append("(var ").append(stmt.identifier().lexeme()).append(")");
+        } else {
+            line.append(parenthesize("var " + stmt.identifier().lexeme(), stmt.expr()));
+        }
+    }
+
+    @Override
+    public void visit(Stmt.While stmt) {
+        line.append("(while ").append(print(stmt.test())).append(" ");
+        append(stmt.body());
+        line.append(")");
+    }
+
+    @Override
+    public void visit(Stmt.CountedLoop stmt) {
+        append(stmt.loop());
+    }
+
+    @Override
+    public void visit(Stmt.Covered stmt) {
+        append(stmt.stmt());
+    }
+
+    @Override
+    public void visit(Stmt.ForIn stmt) {
+        line.append("(for ").append(stmt.name().lexeme()).append(" ")
+                .append(print(stmt.iterable())).append(" ");
+        append(stmt.body());
+        line.append(")");
+    }
+
+    @Override
+    public void visit(Stmt.Yield stmt) {
+        line.append(parenthesize("yield", stmt.value()));
+    }
+
     @Override
     public String visit(Expr.Assign expr) {
-        return parenthesize("define " + expr.name(), expr.value());
+        return parenthesize("= " + expr.name().lexeme(), expr.value());
     }
 
     @Override
@@ -17,7 +151,32 @@ class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visit(Expr.Call expr) {
-        return "";
+        var operands = new Expr[expr.arguments().size() + 1];
+        operands[0] = expr.callee();
+        for (var i = 0; i < expr.arguments().size(); i++) {
+            operands[i + 1] = expr.arguments().get(i);
+        }
+        return parenthesize("call", operands);
+    }
+
+    @Override
+    public String visit(Expr.Get expr) {
+        return parenthesize("get " + expr.name().lexeme(), expr.object());
+    }
+
+    @Override
+    public String visit(Expr.Set expr) {
+        return parenthesize("set " + expr.name().lexeme(), expr.object(), expr.value());
+    }
+
+    @Override
+    public String visit(Expr.This expr) {
+        return "this";
+    }
+
+    @Override
+    public String visit(Expr.Super expr) {
+        return "super." + expr.method().lexeme();
     }
 
     @Override
@@ -28,12 +187,13 @@ class AstPrinter implements Expr.Visitor<String> {
     @Override
     public String visit(Expr.Literal expr) {
         if (expr.value() == null) return "nil";
+        if (expr.value() instanceof String string) return "\"" + string + "\"";
         return expr.value().toString();
     }
 
     @Override
     public String visit(Expr.Logical expr) {
-        return null;
+        return parenthesize(expr.operator().lexeme(), expr.left(), expr.right());
     }
 
     @Override
@@ -42,11 +202,38 @@ class AstPrinter implements Expr.Visitor<String> {
     }
 
     @Override
-    public String visit(Expr.Variable expr) {
-        return null;
+    public String visit(Expr.Invariant expr) {
+        return parenthesize("invariant", expr.expr());
     }
 
+    @Override
+    public String visit(Expr.Inline expr) {
+        return parenthesize("inline", expr.call(), expr.body());
+    }
 
+    @Override
+    public String visit(Expr.Parameter expr) {
+        return expr.name().lexeme();
+    }
+
+    @Override
+    public String visit(Expr.Branch expr) {
+        return expr.condition().accept(this);
+    }
+
+    @Override
+    public String visit(Expr.Variable expr) {
+        return expr.identifier().lexeme();
+    }
+
+    // The parser leaves a null where it dropped a declaration with errors.
+    private void append(Stmt stmt) {
+        if (stmt == null) {
+            line.append("(error)");
+        } else {
+            stmt.accept(this);
+        }
+    }
 
     private String parenthesize(String name, Expr... exprs) {
         var builder = new StringBuilder();
@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Where the resolver found the variable a node refers to: how many
+ * environments out from the current one, or {@link #GLOBAL}. It lives in the
+ * node so it is collected along with the tree it describes.
+ */
+final class Binding implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    static final int GLOBAL = -1;
+
+    int depth = GLOBAL;
+
+    boolean isGlobal() {
+        return depth == GLOBAL;
+    }
+}
@@ -0,0 +1,58 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Lox-level call stack of one interpreter: the name of each active
+ * function and the line it is currently at. Frames are kept in parallel
+ * arrays so pushing a call allocates nothing. Other threads may read it
+ * with {@link #frames()} without locking; they see a possibly stale but
+ * well-formed stack, which is all a sampler needs.
+ */
+final class CallStack {
+    record Frame(String function, int line) {}
+
+    private String[] functions = new String[64];
+    private int[] lines = new int[64];
+    private int depth = 0;
+
+    CallStack(String root) {
+        push(root, 1);
+    }
+
+    void push(String function, int line) {
+        if (depth == functions.length) {
+            functions = Arrays.copyOf(functions, depth * 2);
+            lines = Arrays.copyOf(lines, depth * 2);
+        }
+        functions[depth] = function;
+        lines[depth] = line;
+        depth++;
+    }
+
+    void pop() {
+        depth--;
+    }
+
+    void line(int line) {
+        lines[depth - 1] = line;
+    }
+
+    int line() {
+        return lines[depth - 1];
+    }
+
+    List<Frame> frames() {
+        var functions = this.functions;
+        var lines = this.lines;
+        var depth = Math.min(this.depth, Math.min(functions.length, lines.length));
+
+        var frames = new ArrayList<Frame>(depth);
+        for (int i = 0; i < depth; i++) {
+            frames.add(new Frame(functions[i], lines[i]));
+        }
+        return frames;
+    }
+}
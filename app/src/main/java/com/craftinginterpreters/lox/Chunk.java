@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The bytecode of one function. {@code code} is rewritten in place as
+ * instructions quicken; every form of an instruction is correct for any
+ * operands, so racing rewrites from several threads are harmless.
+ * {@code values} holds the constants NaN-boxed, as {@link Value}s.
+ */
+record Chunk(int[] code, Object[] constants, long[] values, int locals, int stackSize) {
+}
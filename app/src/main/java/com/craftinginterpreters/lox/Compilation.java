@@ -0,0 +1,121 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * The compiled forms of a function body, each built the first time it is
+ * asked for, whether the body yields, and what a {@link ProfileData} knows
+ * about the function.
+ */
+final class Compilation {
+    private volatile Boolean generator;
+
+    private volatile boolean compiled = false;
+    private Chunk chunk;
+
+    private volatile boolean lowered = false;
+    private Ir.Function ir;
+
+    // Counted only while profile data is being collected; races lose counts.
+    private long calls = 0;
+    // Quickened code from an earlier run, applied when the chunk is compiled.
+    private volatile int[] feedback;
+
+    /** Returns the function's chunk, or null if it can't run as bytecode. */
+    Chunk chunk(Stmt.Function function) {
+        if (!compiled) {
+            synchronized (this) {
+                if (!compiled) {
+                    chunk = Compiler.compile(function);
+                    if (chunk != null && feedback != null) quicken(chunk.code(), feedback);
+                    compiled = true;
+                }
+            }
+        }
+        return chunk;
+    }
+
+    /** Returns the function's optimized IR, or null if it can't be lowered. */
+    Ir.Function ir(Stmt.Function function) {
+        if (!lowered) {
+            synchronized (this) {
+                if (!lowered) {
+                    ir = IrBuilder.build(function);
+                    if (ir != null) IrPasses.optimize(ir);
+                    lowered = true;
+                }
+            }
+        }
+        return ir;
+    }
+
+    /** Returns whether calling the function makes a {@link Generator}. */
+    boolean generator(Stmt.Function function) {
+        var yields = generator;
+        if (yields == null) {
+            yields = yields(function.body());
+            generator = yields;
+        }
+        return yields;
+    }
+
+    // Yields in nested functions belong to them.
+    private static boolean yields(List<Stmt> statements) {
+        for (var statement : statements) {
+            if (yields(statement)) return true;
+        }
+        return false;
+    }
+
+    private static boolean yields(Stmt stmt) {
+        return switch (stmt) {
+            case Stmt.Yield s -> true;
+            case Stmt.Block s -> yields(s.statements());
+            case Stmt.If s -> yields(s.then()) || s._else() != null && yields(s._else());
+            case Stmt.While s -> yields(s.body());
+            case Stmt.CountedLoop s -> yields(s.loop());
+            case Stmt.ForIn s -> yields(s.body());
+            case Stmt.Covered s -> yields(s.stmt());
+            case null, default -> false;
+        };
+    }
+
+    /** Builds whichever compiled form the enabled tier will ask for. */
+    void prepare(Stmt.Function function) {
+        if (Lox.ir) {
+            ir(function);
+        } else if (Lox.bytecode) {
+            chunk(function);
+        }
+    }
+
+    void called() {
+        calls++;
+    }
+
+    long calls() {
+        return calls;
+    }
+
+    void preload(int[] code) {
+        feedback = code;
+    }
+
+    /** Returns a copy of the chunk's code as it has quickened so far, or null. */
+    int[] quickenedCode() {
+        if (!compiled || chunk == null) return null;
+        return chunk.code().clone();
+    }
+
+    /**
+     * Copies quickened opcodes from code saved by an earlier run, if it is
+     * the same code apart from quickening.
+     */
+    private static void quicken(int[] code, int[] saved) {
+        if (saved.length != code.length) return;
+        for (var pc = 0; pc < code.length; pc++) {
+            if (code[pc] != saved[pc] && code[pc] != Op.generic(saved[pc])) return;
+        }
+        System.arraycopy(saved, 0, code, 0, code.length);
+    }
+}
@@ -0,0 +1,297 @@
+package com.craftinginterpreters.lox;
+
+import java.util.*;
+
+/**
+ * Compiles a function body to a {@link Chunk}. Locals live in numbered
+ * slots instead of Environments, so only functions that don't need an
+ * Environment are compiled: ones that declare no functions or classes and
+ * use no closure variables, {@code this}, {@code super} or properties.
+ * Anything else stays on the tree-walking interpreter.
+ */
+final class Compiler {
+    /** Thrown when a function uses something that has to stay on the tree walker. */
+    static final class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Unsupported UNSUPPORTED = new Unsupported();
+
+    private int[] code = new int[64];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private int locals = 0;
+    private int maxLocals = 0;
+    private int depth = 0;
+    private int maxDepth = 0;
+
+    private Compiler() {}
+
+    static Chunk compile(Stmt.Function function) {
+        try {
+            return new Compiler().function(function);
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    private Chunk function(Stmt.Function function) {
+        scopes.push(new HashMap<>());
+        for (var param : function.params()) {
+            declare(param);
+        }
+        for (var statement : function.body()) {
+            statement(statement);
+        }
+        emit(1, Op.NIL);
+        emit(-1, Op.RETURN);
+
+        var values = new long[constants.size()];
+        for (var i = 0; i < values.length; i++) {
+            values[i] = Value.encode(constants.get(i));
+        }
+        return new Chunk(Arrays.copyOf(code, count), constants.toArray(), values,
+                maxLocals, maxDepth);
+    }
+
+    private void statement(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression s -> {
+                if (!increment(s.expr())) {
+                    expression(s.expr());
+                    emit(-1, Op.POP);
+                }
+            }
+            case Stmt.Print s -> {
+                expression(s.expr());
+                emit(-1, Op.PRINT);
+            }
+            case Stmt.Return s -> {
+                if (s.value() == null) {
+                    emit(1, Op.NIL);
+                } else {
+                    expression(s.value());
+                }
+                emit(-1, Op.RETURN);
+            }
+            case Stmt.Var s -> {
+                if (s.expr() == null) {
+                    emit(1, Op.NIL);
+                } else {
+                    expression(s.expr());
+                }
+                emit(0, Op.SET_LOCAL, declare(s.identifier()));
+                emit(-1, Op.POP);
+            }
+            case Stmt.Block s -> {
+                scopes.push(new HashMap<>());
+                for (var statement : s.statements()) {
+                    statement(statement);
+                }
+                locals -= scopes.pop().size();
+            }
+            case Stmt.If s -> {
+                var otherwise = condition(s.test());
+                statement(s.then());
+                if (s._else() == null) {
+                    patch(otherwise);
+                } else {
+                    emit(0, Op.JUMP, -1);
+                    var end = count - 1;
+                    patch(otherwise);
+                    statement(s._else());
+                    patch(end);
+                }
+            }
+            case Stmt.While s -> {
+                var start = count;
+                var exit = condition(s.test());
+                statement(s.body());
+                emit(0, Op.JUMP, start);
+                patch(exit);
+            }
+            case Stmt.CountedLoop s -> statement(s.loop());
+            case null, default -> throw UNSUPPORTED;
+        }
+    }
+
+    /** Compiles {@code i = i + number;} into one instruction. */
+    private boolean increment(Expr expr) {
+        if (!(expr instanceof Expr.Assign assign) ||
+                !(assign.value() instanceof Expr.Binary sum) ||
+                sum.operator().type() != TokenType.PLUS ||
+                !(sum.left() instanceof Expr.Variable variable) ||
+                !variable.identifier().lexeme().equals(assign.name().lexeme()) ||
+                !(sum.right() instanceof Expr.Literal literal) ||
+                !(literal.value() instanceof Double)) {
+            return false;
+        }
+
+        var slot = local(assign.name());
+        if (slot == -1) return false;
+
+        emit(0, Op.ADD_LOCAL_CONST, slot, constant(literal.value()), constant(sum.operator()));
+        return true;
+    }
+
+    /**
+     * Compiles a branch test and returns the position of the jump target to
+     * patch with where control goes when it is false.
+     */
+    private int condition(Expr test) {
+        if (test instanceof Expr.Binary binary &&
+                comparison(binary.operator().type()) != -1 &&
+                binary.left() instanceof Expr.Variable left &&
+                local(left.identifier()) != -1) {
+            var comparison = comparison(binary.operator().type());
+            var slot = local(left.identifier());
+
+            if (binary.right() instanceof Expr.Literal literal && literal.value() instanceof Double) {
+                emit(0, Op.JUMP_UNLESS_LOCAL_CONST, comparison, slot,
+                        constant(literal.value()), -1, constant(binary.operator()));
+                return count - 2;
+            }
+            if (binary.right() instanceof Expr.Variable right && local(right.identifier()) != -1) {
+                emit(0, Op.JUMP_UNLESS_LOCAL_LOCAL, comparison, slot,
+                        local(right.identifier()), -1, constant(binary.operator()));
+                return count - 2;
+            }
+        }
+
+        expression(test);
+        emit(-1, Op.JUMP_IF_FALSE, -1);
+        return count - 1;
+    }
+
+    private void expression(Expr expr) {
+        switch (expr) {
+            case Expr.Literal e -> {
+                if (e.value() == null) {
+                    emit(1, Op.NIL);
+                } else if (e.value() instanceof Boolean bool) {
+                    emit(1, bool ? Op.TRUE : Op.FALSE);
+                } else {
+                    emit(1, Op.CONST, constant(e.value()));
+                }
+            }
+            case Expr.Grouping e -> expression(e.expr());
+            case Expr.Invariant e -> expression(e.expr());
+            case Expr.Variable e -> {
+                var slot = local(e.identifier());
+                if (slot != -1) {
+                    emit(1, Op.GET_LOCAL, slot);
+                } else if (e.binding().isGlobal()) {
+                    emit(1, Op.GET_GLOBAL, constant(e.identifier()));
+                } else {
+                    throw UNSUPPORTED;
+                }
+            }
+            case Expr.Assign e -> {
+                expression(e.value());
+                var slot = local(e.name());
+                if (slot != -1) {
+                    emit(0, Op.SET_LOCAL, slot);
+                } else if (e.binding().isGlobal()) {
+                    emit(0, Op.SET_GLOBAL, constant(e.name()));
+                } else {
+                    throw UNSUPPORTED;
+                }
+            }
+            case Expr.Unary e -> {
+                expression(e.right());
+                if (e.operator().type() == TokenType.BANG) {
+                    emit(0, Op.NOT);
+                } else {
+                    emit(0, Op.NEGATE, constant(e.operator()));
+                }
+            }
+            case Expr.Binary e -> {
+                expression(e.left());
+                expression(e.right());
+                switch (e.operator().type()) {
+                case EQUAL_EQUAL -> emit(-1, Op.EQUAL);
+                case BANG_EQUAL -> emit(-1, Op.NOT_EQUAL);
+                default -> emit(-1, binary(e.operator().type()), constant(e.operator()));
+                }
+            }
+            case Expr.Logical e -> {
+                expression(e.left());
+                emit(-1, e.operator().type() == TokenType.OR ? Op.OR : Op.AND, -1);
+                var end = count - 1;
+                expression(e.right());
+                patch(end);
+            }
+            case Expr.Call e -> {
+                expression(e.callee());
+                for (var argument : e.arguments()) {
+                    expression(argument);
+                }
+                emit(-e.arguments().size(), Op.CALL, e.arguments().size(), constant(e.paren()));
+            }
+            case Expr.Inline e -> expression(e.call());
+            default -> throw UNSUPPORTED;
+        }
+    }
+
+    private static int binary(TokenType type) {
+        return switch (type) {
+            case PLUS -> Op.ADD;
+            case MINUS -> Op.SUBTRACT;
+            case STAR -> Op.MULTIPLY;
+            case SLASH -> Op.DIVIDE;
+            case LESS -> Op.LESS;
+            case LESS_EQUAL -> Op.LESS_EQUAL;
+            case GREATER -> Op.GREATER;
+            case GREATER_EQUAL -> Op.GREATER_EQUAL;
+            default -> throw UNSUPPORTED;
+        };
+    }
+
+    private static int comparison(TokenType type) {
+        return switch (type) {
+            case LESS -> Op.LESS;
+            case LESS_EQUAL -> Op.LESS_EQUAL;
+            case GREATER -> Op.GREATER;
+            case GREATER_EQUAL -> Op.GREATER_EQUAL;
+            default -> -1;
+        };
+    }
+
+    private int declare(Token name) {
+        var slot = locals++;
+        scopes.peek().put(name.lexeme(), slot);
+        maxLocals = Math.max(maxLocals, locals);
+        return slot;
+    }
+
+    private int local(Token name) {
+        for (var scope : scopes) {
+            var slot = scope.get(name.lexeme());
+            if (slot != null) return slot;
+        }
+        return -1;
+    }
+
+    private int constant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    private void emit(int effect, int... words) {
+        if (count + words.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, count + words.length));
+        }
+        System.arraycopy(words, 0, code, count, words.length);
+        count += words.length;
+
+        depth += effect;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void patch(int at) {
+        code[at] = count;
+    }
+}
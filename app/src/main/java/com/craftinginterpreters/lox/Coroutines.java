@@ -0,0 +1,224 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coroutines started with {@code spawn(fn)}, and the bounded channels they
+ * talk through: {@code channel(capacity)}, {@code send(channel, value)},
+ * {@code receive(channel)} and {@code close(channel)}. Sending to a full
+ * channel or receiving from an empty one suspends the caller until another
+ * coroutine makes room or sends; receiving from a closed, drained channel
+ * returns nil.
+ *
+ * <p>Each coroutine is a virtual thread running its own
+ * {@link Interpreter#coroutine() interpreter}, but only the thread holding
+ * the run token executes Lox code. The token is handed over only when its
+ * holder suspends on a channel or finishes, so coroutines interleave at
+ * those points and never run in parallel. The interpreter that first used
+ * coroutines holds the token from then on, and after its script lets the
+ * spawned coroutines run until they finish or all wait on channels.
+ *
+ * <p>A coroutine that would suspend when no other could run, which would
+ * wait forever, fails with a deadlock error instead. So does a waiting
+ * one when the last coroutine that could wake it finishes: the script
+ * that first used coroutines if it is waiting, otherwise the one that has
+ * waited longest. Coroutines can't start I/O; the event loop belongs to
+ * the main interpreter.
+ */
+final class Coroutines {
+    /** A bounded FIFO channel, as a Lox value. */
+    static final class Channel {
+        private final Object[] buffer;
+        private int head = 0;
+        private int count = 0;
+        private boolean closed = false;
+        private final Deque<Waiter> senders = new ArrayDeque<>();
+        private final Deque<Waiter> receivers = new ArrayDeque<>();
+
+        private Channel(int capacity) {
+            buffer = new Object[capacity];
+        }
+
+        @Override
+        public String toString() {
+            return "<channel>";
+        }
+    }
+
+    /** A suspended coroutine, resumed once another marks it woken. */
+    private final class Waiter {
+        private final Condition condition = token.newCondition();
+        private final Thread thread = Thread.currentThread();
+        private final Deque<Waiter> queue;
+        private boolean woken = false;
+        private boolean deadlocked = false;
+
+        private Waiter(Deque<Waiter> queue) {
+            this.queue = queue;
+        }
+    }
+
+    private final ReentrantLock token = new ReentrantLock(true);
+    private final Condition finished = token.newCondition();
+    // Coroutines spawned and not yet finished, and threads that are running
+    // or ready to, including the one that created this.
+    private int live = 0;
+    private int runnable = 1;
+    // Every suspended coroutine, longest waiting first.
+    private final Set<Waiter> suspended = new LinkedHashSet<>();
+    private final Thread owner = Thread.currentThread();
+
+    Coroutines() {
+        token.lock();
+    }
+
+    static void define(Environment globals) {
+        Natives.define(globals, new NativeFunction("spawn", 1, false,
+                (interpreter, arguments) -> {
+                    var site = new Token(TokenType.IDENTIFIER, "spawn", null,
+                            interpreter.callStack().line());
+                    interpreter.coroutines().spawn(interpreter, site,
+                            Natives.checkFunction(arguments.get(0), 0));
+                    return null;
+                }));
+        Natives.define(globals, new NativeFunction("channel", 1, false,
+                (interpreter, arguments) -> {
+                    if (arguments.get(0) instanceof Double d && d >= 1 &&
+                            d == Math.floor(d) && d <= Integer.MAX_VALUE) {
+                        return new Channel(d.intValue());
+                    }
+                    throw new NativeError("Channel capacity must be a positive integer.");
+                }));
+        Natives.define(globals, new NativeFunction("send", 2, false,
+                (interpreter, arguments) -> {
+                    interpreter.coroutines().send(checkChannel(arguments.get(0)),
+                            arguments.get(1));
+                    return arguments.get(1);
+                }));
+        Natives.define(globals, new NativeFunction("receive", 1, false,
+                (interpreter, arguments) ->
+                        interpreter.coroutines().receive(checkChannel(arguments.get(0)))));
+    }
+
+    private void spawn(Interpreter interpreter, Token site, LoxCallable function) {
+        var coroutine = interpreter.coroutine();
+        live++;
+        runnable++;
+        Thread.ofVirtual().name("lox-coroutine").start(() -> {
+            token.lock();
+            try {
+                coroutine.call(site, function, List.of());
+            } catch (RuntimeError error) {
+                coroutine.out().flush();
+                Lox.runtimeError(error);
+            } finally {
+                live--;
+                runnable--;
+                if (runnable == 0) breakDeadlock();
+                finished.signalAll();
+                token.unlock();
+            }
+        });
+    }
+
+    private void send(Channel channel, Object value) {
+        while (true) {
+            if (channel.closed) throw new NativeError("Can't send on a closed channel.");
+            if (channel.count < channel.buffer.length) {
+                channel.buffer[(channel.head + channel.count++) % channel.buffer.length] = value;
+                wake(channel.receivers);
+                return;
+            }
+            suspend(channel.senders);
+        }
+    }
+
+    private Object receive(Channel channel) {
+        while (true) {
+            if (channel.count > 0) {
+                var value = channel.buffer[channel.head];
+                channel.buffer[channel.head] = null;
+                channel.head = (channel.head + 1) % channel.buffer.length;
+                channel.count--;
+                wake(channel.senders);
+                return value;
+            }
+            if (channel.closed) return null;
+            suspend(channel.receivers);
+        }
+    }
+
+    void close(Channel channel) {
+        if (channel.closed) throw new NativeError("Channel is already closed.");
+        channel.closed = true;
+        while (!channel.senders.isEmpty()) wake(channel.senders);
+        while (!channel.receivers.isEmpty()) wake(channel.receivers);
+    }
+
+    /** Waits, without the token, until the spawned coroutines finish or all wait. */
+    void join() {
+        runnable--;
+        try {
+            while (live > 0 && runnable > 0) {
+                finished.awaitUninterruptibly();
+            }
+        } finally {
+            runnable++;
+        }
+    }
+
+    private void suspend(Deque<Waiter> queue) {
+        if (runnable == 1) throw deadlock();
+        var waiter = new Waiter(queue);
+        queue.add(waiter);
+        suspended.add(waiter);
+        runnable--;
+        while (!waiter.woken) {
+            waiter.condition.awaitUninterruptibly();
+        }
+        if (waiter.deadlocked) throw deadlock();
+    }
+
+    private void wake(Deque<Waiter> queue) {
+        var waiter = queue.poll();
+        if (waiter != null) resume(waiter);
+    }
+
+    // The waker counts the waiter as runnable, so it doesn't look
+    // deadlocked before it has taken the token back.
+    private void resume(Waiter waiter) {
+        suspended.remove(waiter);
+        waiter.woken = true;
+        runnable++;
+        waiter.condition.signal();
+    }
+
+    // Nothing is left running to wake the suspended coroutines, so one of
+    // them fails instead. If that leaves the rest stuck, its own finish
+    // fails the next one.
+    private void breakDeadlock() {
+        if (suspended.isEmpty()) return;
+        var waiter = suspended.iterator().next();
+        for (var candidate : suspended) {
+            if (candidate.thread == owner) waiter = candidate;
+        }
+        waiter.queue.remove(waiter);
+        waiter.deadlocked = true;
+        resume(waiter);
+    }
+
+    private static NativeError deadlock() {
+        return new NativeError("Deadlock: every coroutine is waiting on a channel.");
+    }
+
+    private static Channel checkChannel(Object value) {
+        if (value instanceof Channel channel) return channel;
+        throw new NativeError("Expected a channel.");
+    }
+}
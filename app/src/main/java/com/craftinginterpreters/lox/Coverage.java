@@ -0,0 +1,258 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Statement and branch hit counts for {@code --coverage}. Compiled code is
+ * instrumented by wrapping every statement in a {@link Stmt.Covered} and
+ * the conditions of ifs, whiles and logical operators in an
+ * {@link Expr.Branch}. Each wrapper carries the id of its probe, which
+ * indexes one dense array of counters; a branch has two consecutive
+ * probes, for its condition coming out truthy and falsy.
+ *
+ * <p>Counters are plain longs, so functions run in parallel by natives
+ * may lose counts. The report is LCOV, or JSON if the file name ends in
+ * {@code .json}.
+ */
+final class Coverage {
+    private record Probe(Path file, int line, boolean branch) {}
+
+    private final List<Probe> probes = new ArrayList<>();
+    private long[] counts = new long[256];
+
+    void hit(int probe) {
+        counts[probe]++;
+    }
+
+    void branch(int probe, boolean truthy) {
+        counts[truthy ? probe : probe + 1]++;
+    }
+
+    /** Returns {@code statements} with probes added, counted against {@code file}. */
+    synchronized List<Stmt> instrument(Path file, List<Stmt> statements) {
+        return new Instrumenter(file).all(statements);
+    }
+
+    private int probe(Path file, int line, boolean branch) {
+        var id = probes.size();
+        probes.add(new Probe(file, line, branch));
+        if (branch) probes.add(new Probe(file, line, true));
+        if (probes.size() > counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(probes.size(), counts.length * 2));
+        }
+        return id;
+    }
+
+    private final class Instrumenter {
+        private final Path file;
+        // The line of the last token seen, for statements that have none.
+        private int line = 1;
+
+        Instrumenter(Path file) {
+            this.file = file;
+        }
+
+        List<Stmt> all(List<Stmt> statements) {
+            var instrumented = new ArrayList<Stmt>(statements.size());
+            for (var statement : statements) {
+                instrumented.add(statement(statement));
+            }
+            return instrumented;
+        }
+
+        private Stmt statement(Stmt stmt) {
+            if (stmt == null) return null;
+            if (stmt instanceof Stmt.Block block) return new Stmt.Block(all(block.statements()));
+            // The module loader finds imports by their type and identity.
+            if (stmt instanceof Stmt.Import) return stmt;
+
+            var probe = probe(file, line(stmt), false);
+            return new Stmt.Covered(switch (stmt) {
+                case Stmt.Expression s -> new Stmt.Expression(expression(s.expr()));
+                case Stmt.Print s -> new Stmt.Print(s.keyword(), expression(s.expr()));
+                case Stmt.Return s -> new Stmt.Return(s.keyword(), expression(s.value()));
+                case Stmt.Var s -> new Stmt.Var(s.identifier(), expression(s.expr()));
+                case Stmt.If s -> new Stmt.If(branch(s.test()), statement(s.then()),
+                        statement(s._else()));
+                case Stmt.While s -> new Stmt.While(branch(s.test()), statement(s.body()),
+                        s.invariants());
+                case Stmt.ForIn s -> new Stmt.ForIn(s.keyword(), s.name(),
+                        expression(s.iterable()), statement(s.body()));
+                case Stmt.Yield s -> new Stmt.Yield(s.keyword(), expression(s.value()));
+                case Stmt.Function s -> function(s);
+                case Stmt.Class s -> {
+                    var methods = new ArrayList<Stmt.Function>();
+                    for (var method : s.methods()) {
+                        methods.add(function(method));
+                    }
+                    yield new Stmt.Class(s.name(), s.superclass(), methods);
+                }
+                default -> stmt;
+            }, probe);
+        }
+
+        private Stmt.Function function(Stmt.Function function) {
+            return new Stmt.Function(function.name(), function.params(), all(function.body()));
+        }
+
+        private Expr branch(Expr condition) {
+            var probe = probe(file, line(condition), true);
+            return new Expr.Branch(expression(condition), probe);
+        }
+
+        private Expr expression(Expr expr) {
+            return switch (expr) {
+                case null -> null;
+                case Expr.Logical e -> new Expr.Logical(branch(e.left()), e.operator(),
+                        expression(e.right()));
+                case Expr.Binary e -> new Expr.Binary(expression(e.left()), e.operator(),
+                        expression(e.right()));
+                case Expr.Unary e -> new Expr.Unary(e.operator(), expression(e.right()));
+                case Expr.Grouping e -> new Expr.Grouping(expression(e.expr()));
+                case Expr.Assign e -> new Expr.Assign(e.name(), expression(e.value()), e.binding());
+                case Expr.Get e -> new Expr.Get(expression(e.object()), e.name(), e.cache());
+                case Expr.Set e -> new Expr.Set(expression(e.object()), e.name(),
+                        expression(e.value()), e.cache());
+                case Expr.Call e -> {
+                    var arguments = new ArrayList<Expr>(e.arguments().size());
+                    for (var argument : e.arguments()) {
+                        arguments.add(expression(argument));
+                    }
+                    yield new Expr.Call(expression(e.callee()), e.paren(), arguments);
+                }
+                default -> expr;
+            };
+        }
+
+        private int line(Stmt stmt) {
+            var token = switch (stmt) {
+                case Stmt.Expression s -> Expr.first(s.expr());
+                case Stmt.Print s -> s.keyword();
+                case Stmt.Return s -> s.keyword();
+                case Stmt.Var s -> s.identifier();
+                case Stmt.If s -> Expr.first(s.test());
+                case Stmt.While s -> Expr.first(s.test());
+                case Stmt.ForIn s -> s.keyword();
+                case Stmt.Yield s -> s.keyword();
+                case Stmt.Function s -> s.name();
+                case Stmt.Class s -> s.name();
+                default -> null;
+            };
+            if (token != null) line = token.line();
+            return line;
+        }
+
+        private int line(Expr expr) {
+            var token = Expr.first(expr);
+            if (token != null) line = token.line();
+            return line;
+        }
+    }
+
+    void write(Path file) throws IOException {
+        var lines = new TreeMap<Path, SortedMap<Integer, Long>>();
+        var branches = new TreeMap<Path, List<Integer>>();
+        synchronized (this) {
+            for (var id = 0; id < probes.size(); id++) {
+                var probe = probes.get(id);
+                if (probe.branch()) {
+                    branches.computeIfAbsent(probe.file(), f -> new ArrayList<>()).add(id++);
+                } else {
+                    // Statements sharing a line count as the line once.
+                    lines.computeIfAbsent(probe.file(), f -> new TreeMap<>())
+                            .merge(probe.line(), counts[id], Math::max);
+                }
+            }
+        }
+
+        try (var out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            if (file.getFileName().toString().endsWith(".json")) {
+                writeJson(out, lines, branches);
+            } else {
+                writeLcov(out, lines, branches);
+            }
+        }
+    }
+
+    private void writeLcov(PrintWriter out, SortedMap<Path, SortedMap<Integer, Long>> lines,
+                           SortedMap<Path, List<Integer>> branches) {
+        for (var file : lines.keySet()) {
+            out.println("TN:");
+            out.println("SF:" + file);
+
+            var found = 0;
+            var hit = 0;
+            for (var probe : branches.getOrDefault(file, List.of())) {
+                var line = probes.get(probe).line();
+                var reached = counts[probe] + counts[probe + 1] > 0;
+                for (var i = 0; i < 2; i++) {
+                    out.println("BRDA:" + line + "," + probe + "," + i + "," +
+                            (reached ? counts[probe + i] : "-"));
+                    found++;
+                    if (counts[probe + i] > 0) hit++;
+                }
+            }
+            out.println("BRF:" + found);
+            out.println("BRH:" + hit);
+
+            hit = 0;
+            for (var entry : lines.get(file).entrySet()) {
+                out.println("DA:" + entry.getKey() + "," + entry.getValue());
+                if (entry.getValue() > 0) hit++;
+            }
+            out.println("LF:" + lines.get(file).size());
+            out.println("LH:" + hit);
+            out.println("end_of_record");
+        }
+    }
+
+    private void writeJson(PrintWriter out, SortedMap<Path, SortedMap<Integer, Long>> lines,
+                           SortedMap<Path, List<Integer>> branches) {
+        out.println("{\"files\": [");
+        var files = new ArrayList<>(lines.keySet());
+        for (var f = 0; f < files.size(); f++) {
+            var file = files.get(f);
+            out.println("  {\"path\": " + quote(file.toString()) + ",");
+
+            var hits = new StringJoiner(", ", "   \"lines\": {", "},");
+            lines.get(file).forEach((line, count) -> hits.add("\"" + line + "\": " + count));
+            out.println(hits);
+
+            out.print("   \"branches\": [");
+            var probes = branches.getOrDefault(file, List.of());
+            for (var i = 0; i < probes.size(); i++) {
+                var probe = probes.get(i);
+                out.print((i == 0 ? "\n" : ",\n") + "    {\"line\": " +
+                        this.probes.get(probe).line() + ", \"id\": " + probe +
+                        ", \"taken\": " + counts[probe] +
+                        ", \"notTaken\": " + counts[probe + 1] + "}");
+            }
+            out.println(probes.isEmpty() ? "]}" + (f + 1 < files.size() ? "," : "")
+                    : "\n   ]}" + (f + 1 < files.size() ? "," : ""));
+        }
+        out.println("]}");
+    }
+
+    private static String quote(String string) {
+        var quoted = new StringBuilder("\"");
+        for (var c : string.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -1,24 +1,39 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
-class Environment {
+class Environment implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
     final Environment enclosing;
     private final Map<String, Object> values = new HashMap<>();
 
     Environment() {
-        enclosing = null;
+        this(null);
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        if (Metrics.ENABLED) Metrics.INSTANCE.environmentAllocated();
     }
 
     void define(String name, Object value) {
         values.put(name, value);
     }
 
+    Map<String, Object> values() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    void clear() {
+        values.clear();
+    }
+
     Environment ancestor(int distance) {
         var environment = this;
         for (int i = 0; i < distance; i++) {
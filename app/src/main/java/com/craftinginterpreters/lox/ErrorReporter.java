@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+
+/**
+ * Prints the compile errors of one piece of source and remembers whether
+ * there were any. Each compile gets its own, so compiles running at the
+ * same time, like imported modules and lazily compiled function bodies,
+ * can't clear or set each other's errors. Errors in an imported module
+ * start with its path, since several modules may report at once.
+ */
+final class ErrorReporter {
+    private final Path path;
+    private boolean hadError = false;
+
+    ErrorReporter() {
+        this(null);
+    }
+
+    ErrorReporter(Path path) {
+        this.path = path;
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type() == TokenType.EOF) {
+            report(token.line(), " at end", message);
+        } else {
+            report(token.line(), " at '" + token.lexeme() + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        var prefix = path == null ? "" : path + ": ";
+        System.err.println(prefix + "[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+}
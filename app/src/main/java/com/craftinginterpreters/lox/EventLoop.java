@@ -0,0 +1,466 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.*;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking I/O for one interpreter. The natives it defines start an
+ * operation and return at once; the callback they were given runs on the
+ * interpreter's thread, from {@link #run()}, once the operation completes.
+ * The interpreter runs the loop after the script, until no timer,
+ * operation or socket is left that could call back.
+ *
+ * <ul>
+ *   <li>{@code setTimeout(fn, ms)} calls {@code fn()} after {@code ms}
+ *       milliseconds and returns an id for {@code clearTimeout(id)}.
+ *   <li>{@code readFile(path, fn)} calls {@code fn(error, contents)}.
+ *   <li>{@code listen(port, fn)} accepts connections on the loopback
+ *       address, calling {@code fn(socket)} for each, and returns the
+ *       listening socket.
+ *   <li>{@code connect(host, port, fn)} calls {@code fn(error, socket)}.
+ *   <li>{@code onData(socket, fn)} calls {@code fn(text)} as text arrives,
+ *       and {@code fn(nil)} when the peer closes the connection.
+ *   <li>{@code write(socket, text)} queues text to be sent.
+ *   <li>{@code close(socket)}, defined with the other natives, closes a
+ *       socket once its queued text is sent.
+ * </ul>
+ *
+ * Sockets are polled with a selector and files are read through
+ * asynchronous file channels, whose completions are handed back to the
+ * loop's thread.
+ */
+final class EventLoop {
+    private static final int READ_SIZE = 8192;
+    // Connections the kernel may queue before the loop gets to accept them.
+    private static final int BACKLOG = 4096;
+
+    /** A function to call back and where it was passed in, for errors. */
+    private record Callback(Token site, LoxCallable function) {}
+
+    private record Timer(double id, long deadline, Callback callback) {}
+
+    /** A TCP socket, listening or connected, as a Lox value. */
+    static final class Socket {
+        private final SelectableChannel channel;
+        private SelectionKey key;
+        private Callback onAccept;
+        private Callback onConnect;
+        private Callback onData;
+        private final Deque<ByteBuffer> writes = new ArrayDeque<>();
+        private boolean closing = false;
+        private ByteBuffer input;
+        private CharsetDecoder decoder;
+
+        private Socket(SelectableChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public String toString() {
+            return channel instanceof ServerSocketChannel ? "<server>" : "<socket>";
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(
+            Comparator.comparingLong(Timer::deadline).thenComparingDouble(Timer::id));
+    private final Map<Double, Timer> timersById = new HashMap<>();
+    private double nextTimerId = 1;
+
+    // Callbacks of finished operations, queued by whichever thread saw them
+    // finish, and how many operations haven't run theirs yet.
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    private int pending = 0;
+    private Selector selector;
+
+    EventLoop(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    static void define(Environment globals) {
+        Natives.define(globals, new NativeFunction("setTimeout", 2, false,
+                (interpreter, arguments) -> interpreter.events().setTimeout(
+                        callback(interpreter, "setTimeout", arguments.get(0), 0),
+                        checkNumber(arguments.get(1)))));
+        Natives.define(globals, new NativeFunction("clearTimeout", 1, false,
+                (interpreter, arguments) -> {
+                    interpreter.events().clearTimeout(arguments.get(0));
+                    return null;
+                }));
+        Natives.define(globals, new NativeFunction("readFile", 2, false,
+                (interpreter, arguments) -> {
+                    interpreter.events().readFile(checkString(arguments.get(0)),
+                            callback(interpreter, "readFile", arguments.get(1), 2));
+                    return null;
+                }));
+        Natives.define(globals, new NativeFunction("listen", 2, false,
+                (interpreter, arguments) -> interpreter.events().listen(
+                        checkPort(arguments.get(0)),
+                        callback(interpreter, "listen", arguments.get(1), 1))));
+        Natives.define(globals, new NativeFunction("connect", 3, false,
+                (interpreter, arguments) -> {
+                    interpreter.events().connect(checkString(arguments.get(0)),
+                            checkPort(arguments.get(1)),
+                            callback(interpreter, "connect", arguments.get(2), 2));
+                    return null;
+                }));
+        Natives.define(globals, new NativeFunction("onData", 2, false,
+                (interpreter, arguments) -> {
+                    interpreter.events().onData(checkSocket(arguments.get(0)),
+                            callback(interpreter, "onData", arguments.get(1), 1));
+                    return null;
+                }));
+        Natives.define(globals, new NativeFunction("write", 2, false,
+                (interpreter, arguments) -> {
+                    interpreter.events().write(checkSocket(arguments.get(0)),
+                            checkString(arguments.get(1)));
+                    return null;
+                }));
+    }
+
+    /** Runs callbacks until nothing is left that could call back. */
+    void run() {
+        while (true) {
+            runCompletions();
+            runTimers();
+            if (!hasWork()) return;
+            poll();
+        }
+    }
+
+    private boolean hasWork() {
+        if (!timers.isEmpty() || pending > 0 || !completions.isEmpty()) return true;
+        if (selector == null) return false;
+        for (var key : selector.keys()) {
+            if (key.isValid() && key.interestOps() != 0) return true;
+        }
+        return false;
+    }
+
+    private void runCompletions() {
+        Runnable completion;
+        while ((completion = completions.poll()) != null) {
+            pending--;
+            completion.run();
+        }
+    }
+
+    private void runTimers() {
+        var now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().deadline() - now <= 0) {
+            var timer = timers.poll();
+            timersById.remove(timer.id());
+            call(timer.callback());
+        }
+    }
+
+    private void poll() {
+        try {
+            var selector = selector();
+            if (!completions.isEmpty()) {
+                selector.selectNow();
+            } else if (!timers.isEmpty()) {
+                var wait = timers.peek().deadline() - System.nanoTime();
+                if (wait <= 0) {
+                    selector.selectNow();
+                } else {
+                    // Print what earlier callbacks wrote before waiting.
+                    interpreter.out().flush();
+                    selector.select(Math.max(1, (wait + 999_999) / 1_000_000));
+                }
+            } else {
+                interpreter.out().flush();
+                selector.select();
+            }
+
+            var ready = selector.selectedKeys().iterator();
+            while (ready.hasNext()) {
+                var key = ready.next();
+                ready.remove();
+                ready(key, (Socket) key.attachment());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void ready(SelectionKey key, Socket socket) throws IOException {
+        if (key.isValid() && key.isAcceptable()) accept(socket);
+        if (key.isValid() && key.isConnectable()) finishConnect(socket);
+        if (key.isValid() && key.isReadable()) read(socket);
+        if (key.isValid() && key.isWritable()) flush(socket);
+    }
+
+    private Selector selector() throws IOException {
+        if (selector == null) selector = Selector.open();
+        return selector;
+    }
+
+    private Object setTimeout(Callback callback, double milliseconds) {
+        var delay = (long) (Math.max(0, milliseconds) * 1_000_000);
+        var timer = new Timer(nextTimerId++, System.nanoTime() + delay, callback);
+        timers.add(timer);
+        timersById.put(timer.id(), timer);
+        return timer.id();
+    }
+
+    private void clearTimeout(Object id) {
+        var timer = timersById.remove(id);
+        if (timer != null) timers.remove(timer);
+    }
+
+    private void readFile(String path, Callback callback) {
+        AsynchronousFileChannel channel;
+        ByteBuffer buffer;
+        try {
+            // Opened first so the reading thread has one to wake.
+            selector();
+            channel = AsynchronousFileChannel.open(Path.of(path), StandardOpenOption.READ);
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                closeQuietly(channel);
+                complete(() -> call(callback, "File is too large to read.", null));
+                return;
+            }
+            buffer = ByteBuffer.allocate((int) size);
+        } catch (IOException | InvalidPathException e) {
+            var message = message(e);
+            complete(() -> call(callback, message, null));
+            return;
+        }
+
+        pending++;
+        channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer read, Void ignored) {
+                if (read >= 0 && buffer.hasRemaining()) {
+                    channel.read(buffer, buffer.position(), null, this);
+                    return;
+                }
+                closeQuietly(channel);
+                buffer.flip();
+                var contents = StandardCharsets.UTF_8.decode(buffer).toString();
+                finish(() -> call(callback, null, contents));
+            }
+
+            @Override
+            public void failed(Throwable e, Void ignored) {
+                closeQuietly(channel);
+                finish(() -> call(callback, message(e), null));
+            }
+        });
+    }
+
+    /** Queues a callback to run on the loop's next turn, from the loop's thread. */
+    private void complete(Runnable completion) {
+        pending++;
+        completions.add(completion);
+    }
+
+    /** Hands a pending operation's callback to the loop; safe from any thread. */
+    private void finish(Runnable completion) {
+        completions.add(completion);
+        selector.wakeup();
+    }
+
+    private Socket listen(int port, Callback callback) {
+        try {
+            var channel = ServerSocketChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+            var socket = register(channel, SelectionKey.OP_ACCEPT);
+            socket.onAccept = callback;
+            return socket;
+        } catch (IOException e) {
+            throw new NativeError("Can't listen on port " + port + ": " + message(e));
+        }
+    }
+
+    private void accept(Socket server) throws IOException {
+        SocketChannel channel;
+        while ((channel = ((ServerSocketChannel) server.channel).accept()) != null) {
+            channel.configureBlocking(false);
+            call(server.onAccept, register(channel, 0));
+            if (!server.key.isValid()) return;
+        }
+    }
+
+    private void connect(String host, int port, Callback callback) {
+        Socket socket = null;
+        try {
+            var channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            socket = register(channel, SelectionKey.OP_CONNECT);
+            socket.onConnect = callback;
+            if (channel.connect(new InetSocketAddress(host, port))) {
+                socket.key.interestOps(0);
+                var connected = socket;
+                complete(() -> call(callback, null, connected));
+            }
+        } catch (IOException | UnresolvedAddressException e) {
+            if (socket != null) closeNow(socket);
+            var message = message(e);
+            complete(() -> call(callback, message, null));
+        }
+    }
+
+    private void finishConnect(Socket socket) {
+        socket.key.interestOps(socket.key.interestOps() & ~SelectionKey.OP_CONNECT);
+        try {
+            ((SocketChannel) socket.channel).finishConnect();
+        } catch (IOException e) {
+            closeNow(socket);
+            call(socket.onConnect, message(e), null);
+            return;
+        }
+        call(socket.onConnect, null, socket);
+    }
+
+    private void onData(Socket socket, Callback callback) {
+        if (!(socket.channel instanceof SocketChannel)) {
+            throw new NativeError("Can't read from a listening socket.");
+        }
+        socket.onData = callback;
+        if (socket.input == null) {
+            socket.input = ByteBuffer.allocate(READ_SIZE);
+            socket.decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        interest(socket, SelectionKey.OP_READ, true);
+    }
+
+    private void read(Socket socket) {
+        int read;
+        try {
+            read = ((SocketChannel) socket.channel).read(socket.input);
+        } catch (IOException e) {
+            read = -1;
+        }
+
+        socket.input.flip();
+        var text = CharBuffer.allocate(socket.input.remaining() + 1);
+        socket.decoder.decode(socket.input, text, read < 0);
+        if (read < 0) socket.decoder.flush(text);
+        socket.input.compact();
+        text.flip();
+
+        if (text.hasRemaining()) call(socket.onData, text.toString());
+        if (read < 0) {
+            closeNow(socket);
+            call(socket.onData, (Object) null);
+        }
+    }
+
+    private void write(Socket socket, String text) {
+        if (!(socket.channel instanceof SocketChannel)) {
+            throw new NativeError("Can't write to a listening socket.");
+        }
+        if (socket.closing || !socket.key.isValid()) {
+            throw new NativeError("Socket is closed.");
+        }
+        socket.writes.add(StandardCharsets.UTF_8.encode(text));
+        interest(socket, SelectionKey.OP_WRITE, true);
+    }
+
+    private void flush(Socket socket) {
+        try {
+            var channel = (SocketChannel) socket.channel;
+            while (!socket.writes.isEmpty()) {
+                var buffer = socket.writes.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) return;
+                socket.writes.poll();
+            }
+        } catch (IOException e) {
+            socket.writes.clear();
+        }
+
+        interest(socket, SelectionKey.OP_WRITE, false);
+        if (socket.closing) closeNow(socket);
+    }
+
+    void close(Socket socket) {
+        if (socket.writes.isEmpty()) {
+            closeNow(socket);
+        } else {
+            socket.closing = true;
+        }
+    }
+
+    private void closeNow(Socket socket) {
+        socket.key.cancel();
+        socket.writes.clear();
+        closeQuietly(socket.channel);
+    }
+
+    private Socket register(SelectableChannel channel, int ops) throws IOException {
+        var socket = new Socket(channel);
+        socket.key = channel.register(selector(), ops, socket);
+        return socket;
+    }
+
+    private static void interest(Socket socket, int op, boolean on) {
+        if (!socket.key.isValid()) return;
+        var ops = socket.key.interestOps();
+        socket.key.interestOps(on ? ops | op : ops & ~op);
+    }
+
+    private void call(Callback callback, Object... arguments) {
+        interpreter.call(callback.site(), callback.function(), Arrays.asList(arguments));
+    }
+
+    private static Callback callback(Interpreter interpreter, String name,
+                                     Object function, int arity) {
+        var site = new Token(TokenType.IDENTIFIER, name, null, interpreter.callStack().line());
+        return new Callback(site, Natives.checkFunction(function, arity));
+    }
+
+    private static double checkNumber(Object value) {
+        if (value instanceof Double d) return d;
+        throw new NativeError("Expected a number.");
+    }
+
+    private static String checkString(Object value) {
+        if (value instanceof String s) return s;
+        throw new NativeError("Expected a string.");
+    }
+
+    private static int checkPort(Object value) {
+        if (value instanceof Double d && d == Math.floor(d) && d >= 0 && d <= 65535) {
+            return d.intValue();
+        }
+        throw new NativeError("Expected a port number.");
+    }
+
+    private static Socket checkSocket(Object value) {
+        if (value instanceof Socket socket) return socket;
+        throw new NativeError("Expected a socket.");
+    }
+
+    private static String message(Throwable e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more can be done with it either way.
+        }
+    }
+}
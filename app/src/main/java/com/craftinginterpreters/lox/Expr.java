@@ -1,10 +1,12 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-sealed interface Expr
+sealed interface Expr extends Serializable
     permits Expr.Literal, Expr.Logical, Expr.Unary, Expr.Assign, Expr.Binary,
-        Expr.Call, Expr.Grouping, Expr.Variable {
+        Expr.Call, Expr.Get, Expr.Set, Expr.This, Expr.Super, Expr.Grouping,
+        Expr.Variable, Expr.Invariant, Expr.Inline, Expr.Parameter, Expr.Branch {
 
     interface Visitor<R> {
         R visit(Literal expr);
@@ -13,12 +15,55 @@ sealed interface Expr
         R visit(Assign expr);
         R visit(Binary expr);
         R visit(Call expr);
+        R visit(Get expr);
+        R visit(Set expr);
+        R visit(This expr);
+        R visit(Super expr);
         R visit(Grouping expr);
         R visit(Variable expr);
+        R visit(Invariant expr);
+        R visit(Inline expr);
+        R visit(Parameter expr);
+        R visit(Branch expr);
     }
 
     <R> R accept(Visitor<R> visitor);
 
+    /** The leftmost token of {@code expr}, or null if it has none, like a literal. */
+    static Token first(Expr expr) {
+        // An instanceof chain rather than a pattern switch: the interpreter
+        // calls this for every expression statement it runs.
+        while (true) {
+            if (expr instanceof Assign e) return e.name();
+            if (expr instanceof Variable e) return e.identifier();
+            if (expr instanceof Call e) return firstOr(e.callee(), e.paren());
+            if (expr instanceof Set e) return firstOr(e.object(), e.name());
+            if (expr instanceof Get e) return firstOr(e.object(), e.name());
+            if (expr instanceof Binary e) return firstOr(e.left(), e.operator());
+            if (expr instanceof Logical e) return firstOr(e.left(), e.operator());
+            if (expr instanceof Unary e) return e.operator();
+            if (expr instanceof This e) return e.keyword();
+            if (expr instanceof Super e) return e.keyword();
+            if (expr instanceof Parameter e) return e.name();
+            if (expr instanceof Grouping e) {
+                expr = e.expr();
+            } else if (expr instanceof Invariant e) {
+                expr = e.expr();
+            } else if (expr instanceof Inline e) {
+                expr = e.call();
+            } else if (expr instanceof Branch e) {
+                expr = e.condition();
+            } else {
+                return null;
+            }
+        }
+    }
+
+    private static Token firstOr(Expr expr, Token fallback) {
+        var token = first(expr);
+        return token != null ? token : fallback;
+    }
+
     record Literal(Object value) implements Expr {
         @Override
         public <R> R accept(Visitor<R> visitor) {
@@ -37,7 +82,11 @@ sealed interface Expr
             return visitor.visit(this);
         }
     }
-    record Assign(Token name, Expr value) implements Expr {
+    record Assign(Token name, Expr value, Binding binding) implements Expr {
+        Assign(Token name, Expr value) {
+            this(name, value, new Binding());
+        }
+
         @Override
         public <R> R accept(Visitor<R> visitor) {
             return visitor.visit(this);
@@ -55,13 +104,95 @@ sealed interface Expr
             return visitor.visit(this);
         }
     }
+    record Get(Expr object, Token name, PropertyCache cache) implements Expr {
+        Get(Expr object, Token name) {
+            this(object, name, new PropertyCache());
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+    record Set(Expr object, Token name, Expr value, PropertyCache cache) implements Expr {
+        Set(Expr object, Token name, Expr value) {
+            this(object, name, value, new PropertyCache());
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+    record This(Token keyword, Binding binding) implements Expr {
+        This(Token keyword) {
+            this(keyword, new Binding());
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+    record Super(Token keyword, Token method, Binding binding) implements Expr {
+        Super(Token keyword, Token method) {
+            this(keyword, method, new Binding());
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
     record Grouping(Expr expr) implements Expr {
         @Override
         public <R> R accept(Visitor<R> visitor) {
             return visitor.visit(this);
         }
     }
-    record Variable(Token identifier) implements Expr {
+    record Variable(Token identifier, Binding binding) implements Expr {
+        Variable(Token identifier) {
+            this(identifier, new Binding());
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+    /**
+     * A loop-invariant expression, evaluated at most once per run of its
+     * loop and kept in that run's slot.
+     */
+    record Invariant(Expr expr, int slot) implements Expr {
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+    /**
+     * A call whose callee is expected to be the top-level function declared
+     * as {@code function}. If it is, {@code body} is evaluated with the
+     * arguments in place of its parameters; otherwise {@code call} is made.
+     */
+    record Inline(Call call, Token function, Expr body) implements Expr {
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+    /** A parameter of an inlined function body. */
+    record Parameter(Token name, int index) implements Expr {
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.visit(this);
+        }
+    }
+    /**
+     * A condition instrumented for coverage: counts whether it came out
+     * truthy or falsy under probes {@code probe} and {@code probe + 1}.
+     */
+    record Branch(Expr condition, int probe) implements Expr {
         @Override
         public <R> R accept(Visitor<R> visitor) {
             return visitor.visit(this);
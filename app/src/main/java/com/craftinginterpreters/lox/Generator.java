@@ -0,0 +1,144 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * What calling a function that yields returns. Its body runs on a virtual
+ * thread with its own {@link Interpreter#generator interpreter}, started
+ * the first time the generator is advanced. The consumer and the body take
+ * turns holding a lock, so they never run at once: each yield hands a
+ * value over and waits for the next advance, and a body that returns or
+ * falls off its end finishes the generator. Closing a generator that is
+ * waiting in a yield unwinds its body from there.
+ *
+ * <p>A generator is its own cursor, so looping over it again continues
+ * where the last loop stopped, if that loop didn't close it. Like
+ * coroutines, a generator's body can't start I/O or use channels.
+ */
+final class Generator implements LoxIterable, LoxIterable.Cursor {
+    // Thrown from a yield to unwind the body of a closed generator.
+    private static final class Closed extends RuntimeException {
+        Closed() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Closed CLOSED = new Closed();
+
+    private final LoxFunction function;
+    private final List<Object> arguments;
+    private final Interpreter interpreter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition turn = lock.newCondition();
+    private boolean started = false;
+    // Whether the body has the turn rather than the consumer.
+    private boolean running = false;
+    private boolean closing = false;
+    private boolean done = false;
+    private Object current;
+    private RuntimeError error;
+
+    Generator(Interpreter interpreter, LoxFunction function, List<Object> arguments) {
+        this.function = function;
+        this.arguments = arguments;
+        this.interpreter = interpreter.generator(this);
+    }
+
+    @Override
+    public Cursor iterator(Interpreter interpreter) {
+        return this;
+    }
+
+    @Override
+    public boolean advance() {
+        lock.lock();
+        try {
+            if (running) throw new NativeError("Generator is already running.");
+            if (done) return false;
+            if (!started) {
+                started = true;
+                Thread.ofVirtual().name("lox-generator").start(this::run);
+            }
+
+            resume();
+            if (error != null) {
+                var failure = error;
+                error = null;
+                throw failure;
+            }
+            return !done;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object current() {
+        return current;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (done || running) return;
+            if (started) {
+                closing = true;
+                resume();
+            }
+            done = true;
+            current = null;
+            error = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called by the body's interpreter: hands over {@code value} and waits for a turn. */
+    void yield(Object value) {
+        current = value;
+        running = false;
+        turn.signal();
+        while (!running) {
+            turn.awaitUninterruptibly();
+        }
+        if (closing) throw CLOSED;
+    }
+
+    private void resume() {
+        running = true;
+        turn.signal();
+        while (running) {
+            turn.awaitUninterruptibly();
+        }
+    }
+
+    private void run() {
+        lock.lock();
+        var name = function.declaration().name();
+        interpreter.callStack().push(name.lexeme(), name.line());
+        try {
+            interpreter.executeBlock(function.declaration().body(),
+                    function.environment(arguments));
+        } catch (Return | Closed e) {
+            // Either ends the body.
+        } catch (RuntimeError e) {
+            e.unwound(name.lexeme(), interpreter.callStack().line());
+            error = e;
+        } finally {
+            done = true;
+            current = null;
+            running = false;
+            turn.signal();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + function.declaration().name().lexeme() + ">";
+    }
+}
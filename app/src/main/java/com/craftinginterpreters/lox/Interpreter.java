@@ -1,51 +1,146 @@
 package com.craftinginterpreters.lox;
 
-import java.text.DecimalFormat;
 import java.util.*;
 
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
-    private final DecimalFormat decimalFormat = new DecimalFormat("0.#");
-
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    private Environment environment;
+    private final OutputSink out;
+    private final CallStack callStack = new CallStack("<script>");
+    private Module module;
+    private final boolean worker;
+    private EventLoop events;
+    private Coroutines coroutines;
+    private Generator generator;
+
+    // Values of the invariant expressions of the innermost running loop.
+    private static final Object UNSET = new Object();
+    private Object[] invariants;
+
+    // Arguments of the innermost inlined call being evaluated.
+    private Object[] parameters;
 
     Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+        this(OutputSink.stdout(OutputSink.DEFAULT_BUFFER_SIZE));
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
+    Interpreter(OutputSink out) {
+        this(new Environment(), out);
+        Natives.define(globals);
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
+    Interpreter(Environment globals, OutputSink out) {
+        this(globals, out, false);
+    }
+
+    private Interpreter(Environment globals, OutputSink out, boolean worker) {
+        this.globals = globals;
+        this.environment = globals;
+        this.out = out;
+        this.worker = worker;
+    }
+
+    Interpreter worker() {
+        return new Interpreter(globals, out, true);
+    }
+
+    /** An interpreter for a coroutine spawned from this one. */
+    Interpreter coroutine() {
+        var coroutine = new Interpreter(globals, out, true);
+        coroutine.coroutines = coroutines;
+        return coroutine;
+    }
+
+    /** An interpreter for the body of {@code generator}, called from this one. */
+    Interpreter generator(Generator generator) {
+        var body = new Interpreter(globals, out, true);
+        body.generator = generator;
+        return body;
+    }
+
+    Coroutines coroutines() {
+        if (coroutines == null) {
+            if (worker) {
+                throw new NativeError("Can't use coroutines from a parallel worker or generator.");
             }
-        });
+            coroutines = new Coroutines();
+        }
+        return coroutines;
+    }
+
+    /** The loop that runs this interpreter's I/O callbacks, created on first use. */
+    EventLoop events() {
+        if (worker) {
+            throw new NativeError(
+                    "Can only start I/O from the main script and its callbacks.");
+        }
+        if (events == null) events = new EventLoop(this);
+        return events;
     }
 
-    void interpret(List<Stmt> statements) {
+    OutputSink out() {
+        return out;
+    }
+
+    CallStack callStack() {
+        return callStack;
+    }
+
+    /** Runs the module, reporting a runtime error if there is one; returns false if so. */
+    boolean interpret(Module module) {
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
+            execute(module);
+            return true;
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            report(error);
+            return false;
         }
     }
 
+    /**
+     * Runs I/O callbacks until none are left, then spawned coroutines until
+     * they finish or wait forever. Reports errors like {@link #interpret}.
+     */
+    boolean runEvents() {
+        try {
+            if (events != null) events.run();
+            if (coroutines != null) coroutines.join();
+            return true;
+        } catch (RuntimeError error) {
+            report(error);
+            return false;
+        }
+    }
+
+    private void report(RuntimeError error) {
+        out.flush();
+        error.unwound(null, callStack.line());
+        Lox.runtimeError(error);
+    }
+
     private void execute(Stmt stmt) {
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // Statements keep their frame's line current, so profile samples show
+    // the line running rather than the line of the last call made.
+    private void line(Token token) {
+        if (token != null) callStack.line(token.line());
+    }
+
+    private void execute(Module module) {
+        var previous = this.module;
+        try {
+            this.module = module;
+            module.executed = true;
+
+            for (Stmt statement : module.statements) {
+                execute(statement);
+            }
+        } finally {
+            this.module = previous;
+        }
     }
 
     @Override
@@ -66,8 +161,44 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
         }
     }
 
+    @Override
+    public void visit(Stmt.Class stmt) {
+        Object superclass = null;
+        if (stmt.superclass() != null) {
+            superclass = evaluate(stmt.superclass());
+            if (!(superclass instanceof LoxClass)) {
+                throw new RuntimeError(stmt.superclass().identifier(),
+                        "Superclass must be a class.");
+            }
+        }
+
+        environment.define(stmt.name().lexeme(), null);
+
+        if (stmt.superclass() != null) {
+            environment = new Environment(environment);
+            environment.define("super", superclass);
+        }
+
+        var methods = new HashMap<String, LoxFunction>();
+        for (var method : stmt.methods()) {
+            if (Lox.profileData != null) Lox.profileData.declared(module, method);
+            var function = new LoxFunction(method, environment,
+                    method.name().lexeme().equals("init"));
+            methods.put(method.name().lexeme(), function);
+        }
+
+        var klass = new LoxClass(stmt.name().lexeme(), (LoxClass) superclass, methods);
+
+        if (superclass != null) {
+            environment = environment.enclosing;
+        }
+
+        environment.assign(stmt.name(), klass);
+    }
+
     @Override
     public void visit(Stmt.If stmt) {
+        line(Expr.first(stmt.test()));
         if (isTruthy(evaluate(stmt.test()))) {
             execute(stmt.then());
         } else if (stmt._else() != null) {
@@ -77,23 +208,33 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
 
     @Override
     public void visit(Stmt.Expression stmt) {
+        line(Expr.first(stmt.expr()));
         evaluate(stmt.expr());
     }
 
     @Override
     public void visit(Stmt.Function stmt) {
+        if (Lox.profileData != null) Lox.profileData.declared(module, stmt);
         var function = new LoxFunction(stmt, environment);
         environment.define(stmt.name().lexeme(), function);
     }
 
+    @Override
+    public void visit(Stmt.Import stmt) {
+        var imported = module.imports.get(stmt);
+        if (!imported.executed) execute(imported);
+    }
+
     @Override
     public void visit(Stmt.Print stmt) {
+        callStack.line(stmt.keyword().line());
         var value = evaluate(stmt.expr());
-        System.out.println(stringify(value));
+        out.println(value);
     }
 
     @Override
     public void visit(Stmt.Return stmt) {
+        callStack.line(stmt.keyword().line());
         Object value = null;
         if (stmt.value() != null) value = evaluate(stmt.value());
 
@@ -102,6 +243,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
 
     @Override
     public void visit(Stmt.Var stmt) {
+        callStack.line(stmt.identifier().line());
         Object value = null;
         if (stmt.expr() != null) {
             value = evaluate(stmt.expr());
@@ -114,9 +256,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
     public Object visit(Expr.Assign expr) {
         var value = evaluate(expr.value());
 
-        var distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name(), value);
+        var binding = expr.binding();
+        if (!binding.isGlobal()) {
+            environment.assignAt(binding.depth, expr.name(), value);
         } else {
             globals.assign(expr.name(), value);
         }
@@ -128,22 +270,25 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
     public Object visit(Expr.Binary expr) {
         var left = evaluate(expr.left());
         var right = evaluate(expr.right());
+        return binary(expr.operator(), left, right);
+    }
 
-        switch (expr.operator().type()) {
+    static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type()) {
         case GREATER:
-            checkNumberOperands(expr.operator(), left, right);
+            checkNumberOperands(operator, left, right);
             return (double) left > (double) right;
         case GREATER_EQUAL:
-            checkNumberOperands(expr.operator(), left, right);
+            checkNumberOperands(operator, left, right);
             return (double) left >= (double) right;
         case LESS:
-            checkNumberOperands(expr.operator(), left, right);
+            checkNumberOperands(operator, left, right);
             return (double) left < (double) right;
         case LESS_EQUAL:
-            checkNumberOperands(expr.operator(), left, right);
+            checkNumberOperands(operator, left, right);
             return (double) left <= (double) right;
         case MINUS:
-            checkNumberOperands(expr.operator(), left, right);
+            checkNumberOperands(operator, left, right);
             return (double) left - (double) right;
         case BANG_EQUAL:
             return !isEqual(left, right);
@@ -152,23 +297,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
         case PLUS:
             if (left instanceof Double dLeft && right instanceof Double dRight) {
                 return dLeft + dRight;
-            } else if (left instanceof String sLeft && right instanceof String sRight) {
-                return sLeft + sRight;
-            } else if (left instanceof String sLeft && right instanceof Double dRight) {
-                return sLeft + dRight;
+            } else if (left instanceof CharSequence sLeft && right instanceof CharSequence sRight) {
+                return Rope.concat(sLeft, sRight);
+            } else if (left instanceof CharSequence sLeft && right instanceof Double dRight) {
+                return Rope.concat(sLeft, String.valueOf(dRight));
             } else {
-                throw new RuntimeError(expr.operator(),
+                throw new RuntimeError(operator,
                         "Operands must be two numbers or two strings.");
             }
         case SLASH:
-            checkNumberOperands(expr.operator(), left, right);
+            checkNumberOperands(operator, left, right);
             try {
                 return (double) left / (double) right;
             } catch (ArithmeticException e) {
-                throw new RuntimeError(expr.operator(), "Divide by zero error.");
+                throw new RuntimeError(operator, "Divide by zero error.");
             }
         case STAR:
-            checkNumberOperands(expr.operator(), left, right);
+            checkNumberOperands(operator, left, right);
             return(double) left * (double) right;
         default:
             return null;
@@ -183,18 +328,114 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
             arguments.add(evaluate(argument));
         }
 
+        return call(expr.paren(), callee, arguments);
+    }
+
+    Object call(Token paren, Object callee, List<Object> arguments) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren(),
+            throw new RuntimeError(paren,
                     "Can only call functions and classes.");
         }
 
         var function = (LoxCallable) callee;
         if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren(), "Expected " +
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + " arguments but got " +
                     arguments.size() + ".");
         }
-        return function.call(this, arguments);
+        callStack.line(paren.line());
+        try {
+            return function.call(this, arguments);
+        } catch (NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
+    }
+
+    @Override
+    public Object visit(Expr.Inline expr) {
+        var call = expr.call();
+        var callee = evaluate(call.callee());
+
+        var arguments = new Object[call.arguments().size()];
+        for (var i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(call.arguments().get(i));
+        }
+
+        if (!(callee instanceof LoxFunction function) ||
+                function.declaration().name() != expr.function()) {
+            return call(call.paren(), callee, Arrays.asList(arguments));
+        }
+
+        // An inlined call still gets its own frame, for traces and profile samples.
+        var name = expr.function();
+        callStack.line(call.paren().line());
+        callStack.push(name.lexeme(), name.line());
+        var enclosing = parameters;
+        try {
+            parameters = arguments;
+            return evaluate(expr.body());
+        } catch (RuntimeError error) {
+            error.unwound(name.lexeme(), callStack.line());
+            throw error;
+        } finally {
+            parameters = enclosing;
+            callStack.pop();
+        }
+    }
+
+    @Override
+    public Object visit(Expr.Parameter expr) {
+        return parameters[expr.index()];
+    }
+
+    @Override
+    public Object visit(Expr.Branch expr) {
+        var value = evaluate(expr.condition());
+        Lox.coverage.branch(expr.probe(), isTruthy(value));
+        return value;
+    }
+
+    @Override
+    public Object visit(Expr.Get expr) {
+        var object = evaluate(expr.object());
+        if (object instanceof LoxInstance instance) {
+            return expr.cache().get(instance, expr.name());
+        }
+
+        throw new RuntimeError(expr.name(), "Only instances have properties.");
+    }
+
+    @Override
+    public Object visit(Expr.Set expr) {
+        var object = evaluate(expr.object());
+
+        if (!(object instanceof LoxInstance instance)) {
+            throw new RuntimeError(expr.name(), "Only instances have fields.");
+        }
+
+        var value = evaluate(expr.value());
+        expr.cache().set(instance, expr.name(), value);
+        return value;
+    }
+
+    @Override
+    public Object visit(Expr.This expr) {
+        return lookUpVariable(expr.keyword(), expr.binding());
+    }
+
+    @Override
+    public Object visit(Expr.Super expr) {
+        var distance = expr.binding().depth;
+        var superclass = (LoxClass) environment.getAt(distance, "super");
+        var object = (LoxInstance) environment.getAt(distance - 1, "this");
+
+        var method = superclass.findMethod(expr.method().lexeme());
+        if (method == null) {
+            throw new RuntimeError(expr.method(),
+                    "Undefined property '" + expr.method().lexeme() + "'.");
+        }
+
+        return method.bind(object);
     }
 
     @Override
@@ -223,12 +464,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
     @Override
     public Object visit(Expr.Unary expr) {
         var right = evaluate(expr.right());
+        return unary(expr.operator(), right);
+    }
 
-        switch (expr.operator().type()) {
+    static Object unary(Token operator, Object right) {
+        switch (operator.type()) {
         case BANG:
             return !isTruthy(right);
         case MINUS:
-            checkNumberOperand(expr.operator(), right);
+            checkNumberOperand(operator, right);
             return -(double) right;
         default:
             return null;
@@ -237,13 +481,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
 
     @Override
     public Object visit(Expr.Variable expr) {
-        return lookUpVariable(expr.identifier(), expr);
+        return lookUpVariable(expr.identifier(), expr.binding());
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        var distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme());
+    private Object lookUpVariable(Token name, Binding binding) {
+        if (!binding.isGlobal()) {
+            return environment.getAt(binding.depth, name.lexeme());
         } else {
             return globals.get(name);
         }
@@ -251,39 +494,169 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor {
 
     @Override
     public void visit(Stmt.While stmt) {
-        while(isTruthy(evaluate(stmt.test()))) {
+        if (stmt.invariants() == 0) {
+            loop(stmt);
+            return;
+        }
+
+        var enclosing = invariants;
+        try {
+            invariants = newInvariants(stmt.invariants());
+            loop(stmt);
+        } finally {
+            invariants = enclosing;
+        }
+    }
+
+    private void loop(Stmt.While stmt) {
+        var test = Expr.first(stmt.test());
+        var line = test != null ? test.line() : callStack.line();
+        while (true) {
+            callStack.line(line);
+            if (!isTruthy(evaluate(stmt.test()))) break;
             execute(stmt.body());
         }
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    @Override
+    public void visit(Stmt.CountedLoop stmt) {
+        var enclosing = invariants;
+        try {
+            if (stmt.loop().invariants() > 0) {
+                invariants = newInvariants(stmt.loop().invariants());
+            }
+
+            var counter = stmt.counter();
+            var depth = counter.binding().depth;
+            var start = environment.getAt(depth, counter.identifier().lexeme());
+            var limit = evaluate(stmt.limit());
+            if (!(start instanceof Double from && limit instanceof Double to)) {
+                loop(stmt.loop());
+                return;
+            }
+
+            var operator = stmt.operator().type();
+            var body = stmt.body().statements();
+            for (double i = from; compare(operator, i, to); ) {
+                executeBlock(body, new Environment(environment));
+                i += stmt.step();
+                environment.assignAt(depth, counter.identifier(), i);
+            }
+        } finally {
+            invariants = enclosing;
+        }
+    }
+
+    @Override
+    public void visit(Stmt.ForIn stmt) {
+        if (!(evaluate(stmt.iterable()) instanceof LoxIterable iterable)) {
+            throw new RuntimeError(stmt.keyword(),
+                    "Can only loop over arrays, generators and sequences.");
+        }
+
+        try (var cursor = iterable.iterator(this)) {
+            while (advance(cursor, stmt.keyword())) {
+                var scope = new Environment(environment);
+                scope.define(stmt.name().lexeme(), cursor.current());
+                executeBlock(List.of(stmt.body()), scope);
+            }
+        } catch (NativeError error) {
+            throw new RuntimeError(stmt.keyword(), error.getMessage());
+        }
+    }
+
+    // Errors from advancing, such as a generator's, show the loop's line in this frame.
+    private boolean advance(LoxIterable.Cursor cursor, Token keyword) {
+        callStack.line(keyword.line());
+        return cursor.advance();
+    }
+
+    @Override
+    public void visit(Stmt.Yield stmt) {
+        Object value = null;
+        if (stmt.value() != null) value = evaluate(stmt.value());
+
+        generator.yield(value);
+    }
+
+    @Override
+    public void visit(Stmt.Covered stmt) {
+        Lox.coverage.hit(stmt.probe());
+        execute(stmt.stmt());
+    }
+
+    private static boolean compare(TokenType operator, double left, double right) {
+        return switch (operator) {
+            case LESS -> left < right;
+            case LESS_EQUAL -> left <= right;
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            default -> throw new IllegalArgumentException(operator.toString());
+        };
+    }
+
+    private static Object[] newInvariants(int size) {
+        var values = new Object[size];
+        Arrays.fill(values, UNSET);
+        return values;
+    }
+
+    @Override
+    public Object visit(Expr.Invariant expr) {
+        var values = invariants;
+        var value = values[expr.slot()];
+        if (value == UNSET) {
+            value = evaluate(expr.expr());
+            values[expr.slot()] = value;
+        }
+        return value;
+    }
+
+    private static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
 
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean bool) return bool;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) return true;
-        if (a == null) return false;
+    static boolean isEqual(Object a, Object b) {
+        // Catches nil, interned strings and any other value compared to itself.
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (a instanceof CharSequence sa && b instanceof CharSequence sb) {
+            // Checked before flattening a rope.
+            if (sa.length() != sb.length()) return false;
+            var stringA = sa.toString();
+            var stringB = sb.toString();
+            // Hashes are cached, so a string compared with many others
+            // hashes once and rejects the rest without comparing characters.
+            return stringA.hashCode() == stringB.hashCode() && stringA.equals(stringB);
+        }
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double d) {
-            return decimalFormat.format(d);
+            return Numbers.format(d);
+        }
+        if (object instanceof LoxArray array) {
+            var joiner = new StringJoiner(", ", "[", "]");
+            for (var element : array.elements()) {
+                joiner.add(stringify(element));
+            }
+            return joiner.toString();
         }
         return object.toString();
     }
@@ -0,0 +1,154 @@
+package com.craftinginterpreters.lox;
+
+import java.util.*;
+
+/**
+ * A register-based SSA form of a function body. {@link IrBuilder} lowers a
+ * resolved function into it, {@link IrPasses} improves it and
+ * {@link IrInterpreter} runs it. Every instruction that produces a value
+ * writes a register of its own that nothing else writes.
+ */
+final class Ir {
+    private Ir() {}
+
+    enum Kind {
+        CONST, PARAM, GLOBAL, SET_GLOBAL, COPY, BINARY, UNARY, CALL, PRINT, PHI,
+        JUMP, BRANCH, RETURN
+    }
+
+    /** What is statically known about the values a register can hold. */
+    enum Type {
+        NONE, NUMBER, BOOLEAN, NIL, ANY;
+
+        Type join(Type other) {
+            if (this == other || other == NONE) return this;
+            if (this == NONE) return other;
+            return ANY;
+        }
+
+        static Type of(Object value) {
+            if (value == null) return NIL;
+            if (value instanceof Double) return NUMBER;
+            if (value instanceof Boolean) return BOOLEAN;
+            return ANY;
+        }
+    }
+
+    static final class Instr {
+        final Kind kind;
+        final int result;
+        int[] args;
+        final Object constant;
+        final Token token;
+        final Block[] targets;
+        // For JUMP and BRANCH, which predecessor of each target this block is.
+        int[] edges;
+        // Whether every operand is known to be a number.
+        boolean numeric;
+
+        Instr(Kind kind, int result, int[] args, Object constant, Token token, Block... targets) {
+            this.kind = kind;
+            this.result = result;
+            this.args = args;
+            this.constant = constant;
+            this.token = token;
+            this.targets = targets;
+        }
+
+        boolean isTerminator() {
+            return kind == Kind.JUMP || kind == Kind.BRANCH || kind == Kind.RETURN;
+        }
+
+        @Override
+        public String toString() {
+            var text = new StringBuilder();
+            if (result != -1) text.append('r').append(result).append(" = ");
+            text.append(kind.name().toLowerCase());
+            if (token != null) text.append(' ').append(token.lexeme());
+            if (kind == Kind.CONST || kind == Kind.PARAM) text.append(' ').append(constant);
+            for (var arg : args) text.append(" r").append(arg);
+            for (var target : targets) text.append(" b").append(target.id);
+            return text.toString();
+        }
+    }
+
+    static final class Block {
+        final int id;
+        final List<Block> predecessors = new ArrayList<>();
+        final List<Instr> phis = new ArrayList<>();
+        final List<Instr> instructions = new ArrayList<>();
+        Instr terminator;
+        Instr[] code;
+
+        Block(int id) {
+            this.id = id;
+        }
+
+        List<Block> successors() {
+            return terminator == null ? List.of() : List.of(terminator.targets);
+        }
+
+        void removePredecessor(Block predecessor) {
+            var index = predecessors.indexOf(predecessor);
+            predecessors.remove(index);
+            for (var phi : phis) {
+                var args = new int[phi.args.length - 1];
+                System.arraycopy(phi.args, 0, args, 0, index);
+                System.arraycopy(phi.args, index + 1, args, index, args.length - index);
+                phi.args = args;
+            }
+        }
+    }
+
+    static final class Function {
+        final String name;
+        final List<Block> blocks;
+        final int registers;
+        Type[] types;
+        int maxPhis = 0;
+
+        Function(String name, List<Block> blocks, int registers) {
+            this.name = name;
+            this.blocks = blocks;
+            this.registers = registers;
+        }
+
+            /**
+         * Records, for every jump, which predecessor of its target it is, and
+         * flattens everything else the interpreter needs into arrays and flags.
+         */
+        void link() {
+            for (var block : blocks) {
+                maxPhis = Math.max(maxPhis, block.phis.size());
+                block.code = block.instructions.toArray(new Instr[0]);
+                for (var instr : block.code) {
+                    instr.numeric = instr.args.length > 0;
+                    for (var arg : instr.args) {
+                        instr.numeric &= types[arg] == Type.NUMBER;
+                    }
+                }
+                var targets = block.terminator.targets;
+                block.terminator.edges = new int[targets.length];
+                for (var i = 0; i < targets.length; i++) {
+                    block.terminator.edges[i] = targets[i].predecessors.indexOf(block);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            var text = new StringBuilder("fun ").append(name).append('\n');
+            for (var block : blocks) {
+                text.append('b').append(block.id).append(':');
+                for (var predecessor : block.predecessors) {
+                    text.append(" b").append(predecessor.id);
+                }
+                text.append('\n');
+                for (var phi : block.phis) text.append("  ").append(phi).append('\n');
+                for (var instr : block.instructions) text.append("  ").append(instr).append('\n');
+                text.append("  ").append(block.terminator).append('\n');
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.craftinginterpreters.lox;
+
+import java.util.*;
+
+import static com.craftinginterpreters.lox.Compiler.UNSUPPORTED;
+
+/**
+ * Lowers a function body to {@link Ir}, building SSA form directly while it
+ * walks the tree (Braun et al., "Simple and Efficient Construction of Static
+ * Single Assignment Form"). It handles the same functions as the bytecode
+ * {@link Compiler}; anything else returns null.
+ *
+ * <p>Declarations and assignments of locals are lowered to COPYs, which
+ * copy propagation later removes.
+ */
+final class IrBuilder {
+    private final List<Ir.Block> blocks = new ArrayList<>();
+    private int registers = 0;
+    private Ir.Block current;
+
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private int variables = 0;
+
+    // Per block: the register holding each variable at the end of the block.
+    private final List<Map<Integer, Integer>> definitions = new ArrayList<>();
+    private final Set<Ir.Block> sealed = new HashSet<>();
+    private final Map<Ir.Block, Map<Integer, Ir.Instr>> incompletePhis = new HashMap<>();
+
+    private IrBuilder() {}
+
+    static Ir.Function build(Stmt.Function function) {
+        try {
+            return new IrBuilder().function(function);
+        } catch (Compiler.Unsupported e) {
+            return null;
+        }
+    }
+
+    private Ir.Function function(Stmt.Function function) {
+        current = newBlock();
+        seal(current);
+
+        scopes.push(new HashMap<>());
+        var params = function.params();
+        for (var i = 0; i < params.size(); i++) {
+            var param = emit(Ir.Kind.PARAM, new int[0], i, null);
+            write(declare(params.get(i)), current, param);
+        }
+        for (var statement : function.body()) {
+            statement(statement);
+        }
+        terminate(new Ir.Instr(Ir.Kind.RETURN, -1,
+                new int[] {emit(Ir.Kind.CONST, new int[0], null, null)}, null, null));
+
+        return new Ir.Function(function.name().lexeme(), blocks, registers);
+    }
+
+    private void statement(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Expression s -> expression(s.expr());
+            case Stmt.Print s -> emitEffect(Ir.Kind.PRINT, new int[] {expression(s.expr())}, null);
+            case Stmt.Return s -> {
+                var value = s.value() == null
+                        ? emit(Ir.Kind.CONST, new int[0], null, null)
+                        : expression(s.value());
+                terminate(new Ir.Instr(Ir.Kind.RETURN, -1, new int[] {value}, null, null));
+
+                // Anything after the return is unreachable and is removed later.
+                current = newBlock();
+                seal(current);
+            }
+            case Stmt.Var s -> {
+                var value = s.expr() == null
+                        ? emit(Ir.Kind.CONST, new int[0], null, null)
+                        : expression(s.expr());
+                write(declare(s.identifier()), current,
+                        emit(Ir.Kind.COPY, new int[] {value}, null, null));
+            }
+            case Stmt.Block s -> {
+                scopes.push(new HashMap<>());
+                for (var statement : s.statements()) {
+                    statement(statement);
+                }
+                scopes.pop();
+            }
+            case Stmt.If s -> {
+                var test = expression(s.test());
+                var then = newBlock();
+                var otherwise = newBlock();
+                var join = newBlock();
+                branch(test, then, otherwise);
+                seal(then);
+                seal(otherwise);
+
+                current = then;
+                statement(s.then());
+                jump(join);
+
+                current = otherwise;
+                if (s._else() != null) statement(s._else());
+                jump(join);
+
+                seal(join);
+                current = join;
+            }
+            case Stmt.While s -> {
+                var header = newBlock();
+                jump(header);
+                current = header;
+                var test = expression(s.test());
+
+                var body = newBlock();
+                var exit = newBlock();
+                branch(test, body, exit);
+                seal(body);
+                current = body;
+                statement(s.body());
+                jump(header);
+
+                seal(header);
+                seal(exit);
+                current = exit;
+            }
+            case Stmt.CountedLoop s -> statement(s.loop());
+            case null, default -> throw UNSUPPORTED;
+        }
+    }
+
+    private int expression(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal e -> emit(Ir.Kind.CONST, new int[0], e.value(), null);
+            case Expr.Grouping e -> expression(e.expr());
+            case Expr.Invariant e -> expression(e.expr());
+            case Expr.Inline e -> expression(e.call());
+            case Expr.Variable e -> {
+                var variable = variable(e.identifier());
+                if (variable != -1) yield read(variable, current);
+                if (e.binding().isGlobal()) {
+                    yield emit(Ir.Kind.GLOBAL, new int[0], null, e.identifier());
+                }
+                throw UNSUPPORTED;
+            }
+            case Expr.Assign e -> {
+                var value = expression(e.value());
+                var variable = variable(e.name());
+                if (variable != -1) {
+                    var copy = emit(Ir.Kind.COPY, new int[] {value}, null, null);
+                    write(variable, current, copy);
+                    yield copy;
+                }
+                if (e.binding().isGlobal()) {
+                    emitEffect(Ir.Kind.SET_GLOBAL, new int[] {value}, e.name());
+                    yield value;
+                }
+                throw UNSUPPORTED;
+            }
+            case Expr.Unary e -> emit(Ir.Kind.UNARY, new int[] {expression(e.right())}, null, e.operator());
+            case Expr.Binary e -> {
+                var left = expression(e.left());
+                var right = expression(e.right());
+                yield emit(Ir.Kind.BINARY, new int[] {left, right}, null, e.operator());
+            }
+            case Expr.Logical e -> {
+                var left = expression(e.left());
+                var from = current;
+                var right = newBlock();
+                var join = newBlock();
+                if (e.operator().type() == TokenType.OR) {
+                    branch(left, join, right);
+                } else {
+                    branch(left, right, join);
+                }
+                seal(right);
+
+                current = right;
+                var value = expression(e.right());
+                jump(join);
+                seal(join);
+                current = join;
+
+                // The join's predecessors are 'from' and then the end of the right operand.
+                assert join.predecessors.get(0) == from;
+                var phi = new Ir.Instr(Ir.Kind.PHI, registers++, new int[] {left, value}, null, null);
+                join.phis.add(phi);
+                yield phi.result;
+            }
+            case Expr.Call e -> {
+                var args = new int[e.arguments().size() + 1];
+                args[0] = expression(e.callee());
+                for (var i = 0; i < e.arguments().size(); i++) {
+                    args[i + 1] = expression(e.arguments().get(i));
+                }
+                yield emit(Ir.Kind.CALL, args, null, e.paren());
+            }
+            default -> throw UNSUPPORTED;
+        };
+    }
+
+    private int declare(Token name) {
+        var variable = variables++;
+        scopes.peek().put(name.lexeme(), variable);
+        return variable;
+    }
+
+    private int variable(Token name) {
+        for (var scope : scopes) {
+            var variable = scope.get(name.lexeme());
+            if (variable != null) return variable;
+        }
+        return -1;
+    }
+
+    private void write(int variable, Ir.Block block, int register) {
+        definitions.get(block.id).put(variable, register);
+    }
+
+    private int read(int variable, Ir.Block block) {
+        var register = definitions.get(block.id).get(variable);
+        if (register != null) return register;
+
+        int value;
+        if (!sealed.contains(block)) {
+            var phi = newPhi(block);
+            incompletePhis.computeIfAbsent(block, b -> new HashMap<>()).put(variable, phi);
+            value = phi.result;
+        } else if (block.predecessors.size() == 1) {
+            value = read(variable, block.predecessors.get(0));
+        } else if (block.predecessors.isEmpty()) {
+            // Only unreachable code reads a variable no path has defined.
+            var nil = new Ir.Instr(Ir.Kind.CONST, registers++, new int[0], null, null);
+            block.instructions.add(0, nil);
+            value = nil.result;
+        } else {
+            var phi = newPhi(block);
+            write(variable, block, phi.result);
+            addPhiOperands(variable, phi, block);
+            value = phi.result;
+        }
+        write(variable, block, value);
+        return value;
+    }
+
+    private Ir.Instr newPhi(Ir.Block block) {
+        var phi = new Ir.Instr(Ir.Kind.PHI, registers++, new int[0], null, null);
+        block.phis.add(phi);
+        return phi;
+    }
+
+    private void addPhiOperands(int variable, Ir.Instr phi, Ir.Block block) {
+        var args = new int[block.predecessors.size()];
+        for (var i = 0; i < args.length; i++) {
+            args[i] = read(variable, block.predecessors.get(i));
+        }
+        phi.args = args;
+    }
+
+    private void seal(Ir.Block block) {
+        var phis = incompletePhis.remove(block);
+        sealed.add(block);
+        if (phis == null) return;
+        for (var entry : phis.entrySet()) {
+            addPhiOperands(entry.getKey(), entry.getValue(), block);
+        }
+    }
+
+    private Ir.Block newBlock() {
+        var block = new Ir.Block(blocks.size());
+        blocks.add(block);
+        definitions.add(new HashMap<>());
+        return block;
+    }
+
+    private int emit(Ir.Kind kind, int[] args, Object constant, Token token) {
+        var instr = new Ir.Instr(kind, registers++, args, constant, token);
+        current.instructions.add(instr);
+        return instr.result;
+    }
+
+    private void emitEffect(Ir.Kind kind, int[] args, Token token) {
+        current.instructions.add(new Ir.Instr(kind, -1, args, null, token));
+    }
+
+    private void terminate(Ir.Instr terminator) {
+        current.terminator = terminator;
+    }
+
+    private void jump(Ir.Block target) {
+        terminate(new Ir.Instr(Ir.Kind.JUMP, -1, new int[0], null, null, target));
+        target.predecessors.add(current);
+    }
+
+    private void branch(int test, Ir.Block then, Ir.Block otherwise) {
+        terminate(new Ir.Instr(Ir.Kind.BRANCH, -1, new int[] {test}, null, null, then, otherwise));
+        then.predecessors.add(current);
+        otherwise.predecessors.add(current);
+    }
+}
@@ -0,0 +1,163 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs an optimized {@link Ir.Function}. Registers inferred to always hold
+ * numbers live unboxed in a {@code double[]}, and operators on two such
+ * registers skip the type checks; every other register holds an Object.
+ */
+final class IrInterpreter {
+    private IrInterpreter() {}
+
+    static Object run(Interpreter interpreter, Ir.Function function, List<Object> arguments) {
+        var types = function.types;
+        var numbers = new double[function.registers];
+        var objects = new Object[function.registers];
+        var globals = interpreter.globals;
+        var phiNumbers = new double[function.maxPhis];
+        var phiObjects = new Object[function.maxPhis];
+
+        var block = function.blocks.get(0);
+        var edge = -1;
+        while (true) {
+            var phis = block.phis;
+            if (!phis.isEmpty()) {
+                // Phis read their operands together, before any of them is written.
+                for (var i = 0; i < phis.size(); i++) {
+                    var phi = phis.get(i);
+                    var source = phi.args[edge];
+                    if (types[phi.result] == Ir.Type.NUMBER) {
+                        phiNumbers[i] = numbers[source];
+                    } else {
+                        phiObjects[i] = get(types, numbers, objects, source);
+                    }
+                }
+                for (var i = 0; i < phis.size(); i++) {
+                    var result = phis.get(i).result;
+                    if (types[result] == Ir.Type.NUMBER) {
+                        numbers[result] = phiNumbers[i];
+                    } else {
+                        objects[result] = phiObjects[i];
+                    }
+                }
+            }
+
+            for (var instr : block.code) {
+                switch (instr.kind) {
+                    case CONST -> set(types, numbers, objects, instr.result, instr.constant);
+                    case PARAM -> set(types, numbers, objects, instr.result,
+                            arguments.get((Integer) instr.constant));
+                    case GLOBAL -> set(types, numbers, objects, instr.result, globals.get(instr.token));
+                    case SET_GLOBAL -> globals.assign(instr.token,
+                            get(types, numbers, objects, instr.args[0]));
+                    case COPY -> set(types, numbers, objects, instr.result,
+                            get(types, numbers, objects, instr.args[0]));
+                    case UNARY -> {
+                        var operand = instr.args[0];
+                        if (instr.numeric && instr.token.type() == TokenType.MINUS) {
+                            numbers[instr.result] = -numbers[operand];
+                        } else {
+                            set(types, numbers, objects, instr.result, Interpreter.unary(instr.token,
+                                    get(types, numbers, objects, operand)));
+                        }
+                    }
+                    case BINARY -> {
+                        var left = instr.args[0];
+                        var right = instr.args[1];
+                        if (instr.numeric) {
+                            binary(instr, numbers[left], numbers[right], types, numbers, objects);
+                        } else if (isNumber(types, objects, left) && isNumber(types, objects, right)) {
+                            // Not known statically, but numbers this time.
+                            binary(instr, number(types, numbers, objects, left),
+                                    number(types, numbers, objects, right), types, numbers, objects);
+                        } else {
+                            set(types, numbers, objects, instr.result, Interpreter.binary(instr.token,
+                                    get(types, numbers, objects, left),
+                                    get(types, numbers, objects, right)));
+                        }
+                    }
+                    case CALL -> {
+                        var args = instr.args;
+                        var callArguments = new ArrayList<Object>(args.length - 1);
+                        for (var i = 1; i < args.length; i++) {
+                            callArguments.add(get(types, numbers, objects, args[i]));
+                        }
+                        set(types, numbers, objects, instr.result, interpreter.call(instr.token,
+                                get(types, numbers, objects, args[0]), callArguments));
+                    }
+                    case PRINT -> interpreter.out().println(get(types, numbers, objects, instr.args[0]));
+                    default -> throw new IllegalStateException("Unexpected " + instr.kind + " in block body.");
+                }
+            }
+
+            var terminator = block.terminator;
+            switch (terminator.kind) {
+                case JUMP -> {
+                    edge = terminator.edges[0];
+                    block = terminator.targets[0];
+                }
+                case BRANCH -> {
+                    var test = terminator.args[0];
+                    var taken = types[test] == Ir.Type.NUMBER ||
+                            Interpreter.isTruthy(objects[test]) ? 0 : 1;
+                    edge = terminator.edges[taken];
+                    block = terminator.targets[taken];
+                }
+                case RETURN -> {
+                    return get(types, numbers, objects, terminator.args[0]);
+                }
+                default -> throw new IllegalStateException("Unexpected terminator " + terminator.kind + ".");
+            }
+        }
+    }
+
+    private static void binary(Ir.Instr instr, double left, double right,
+                               Ir.Type[] types, double[] numbers, Object[] objects) {
+        var result = instr.result;
+        switch (instr.token.type()) {
+            // Only + can have a result that isn't known to be a number.
+            case PLUS -> {
+                if (types[result] == Ir.Type.NUMBER) {
+                    numbers[result] = left + right;
+                } else {
+                    objects[result] = left + right;
+                }
+            }
+            case MINUS -> numbers[result] = left - right;
+            case STAR -> numbers[result] = left * right;
+            case SLASH -> numbers[result] = left / right;
+            case LESS -> objects[result] = left < right;
+            case LESS_EQUAL -> objects[result] = left <= right;
+            case GREATER -> objects[result] = left > right;
+            case GREATER_EQUAL -> objects[result] = left >= right;
+            // Double.equals semantics, as in Interpreter.isEqual.
+            case EQUAL_EQUAL -> objects[result] =
+                    Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            case BANG_EQUAL -> objects[result] =
+                    Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+            default -> throw new IllegalStateException("Unexpected operator " + instr.token.lexeme() + ".");
+        }
+    }
+
+    private static boolean isNumber(Ir.Type[] types, Object[] objects, int register) {
+        return types[register] == Ir.Type.NUMBER || objects[register] instanceof Double;
+    }
+
+    private static double number(Ir.Type[] types, double[] numbers, Object[] objects, int register) {
+        return types[register] == Ir.Type.NUMBER ? numbers[register] : (Double) objects[register];
+    }
+
+    private static Object get(Ir.Type[] types, double[] numbers, Object[] objects, int register) {
+        return types[register] == Ir.Type.NUMBER ? numbers[register] : objects[register];
+    }
+
+    private static void set(Ir.Type[] types, double[] numbers, Object[] objects, int register, Object value) {
+        if (types[register] == Ir.Type.NUMBER) {
+            numbers[register] = (Double) value;
+        } else {
+            objects[register] = value;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.craftinginterpreters.lox;
+
+import java.util.*;
+
+/**
+ * Optimization passes over {@link Ir}. None of them reorders instructions,
+ * and an instruction that could fail or has effects is only ever removed
+ * when it is unreachable, so runtime errors are reported exactly as the
+ * tree walker reports them.
+ */
+final class IrPasses {
+    private IrPasses() {}
+
+    static void optimize(Ir.Function function) {
+        propagateCopies(function);
+        propagateConstants(function);
+        propagateCopies(function);
+        inferTypes(function);
+        eliminateDeadStores(function);
+        removeEmptyBlocks(function);
+        function.link();
+    }
+
+    /**
+     * Replaces uses of COPYs, and of phis whose operands are all the same
+     * register, with the register they copy.
+     */
+    static void propagateCopies(Ir.Function function) {
+        var replacement = new int[function.registers];
+        for (var i = 0; i < replacement.length; i++) replacement[i] = i;
+
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : function.blocks) {
+                for (var iterator = block.instructions.iterator(); iterator.hasNext(); ) {
+                    var instr = iterator.next();
+                    if (instr.kind == Ir.Kind.COPY) {
+                        replacement[instr.result] = find(replacement, instr.args[0]);
+                        iterator.remove();
+                        changed = true;
+                    }
+                }
+                for (var iterator = block.phis.iterator(); iterator.hasNext(); ) {
+                    var phi = iterator.next();
+                    var only = -1;
+                    var trivial = true;
+                    for (var arg : phi.args) {
+                        var source = find(replacement, arg);
+                        if (source == phi.result || source == only) continue;
+                        if (only != -1) {
+                            trivial = false;
+                            break;
+                        }
+                        only = source;
+                    }
+                    if (trivial && only != -1) {
+                        replacement[phi.result] = only;
+                        iterator.remove();
+                        changed = true;
+                    }
+                }
+            }
+            forEachInstr(function, instr -> {
+                for (var i = 0; i < instr.args.length; i++) {
+                    instr.args[i] = find(replacement, instr.args[i]);
+                }
+            });
+        }
+    }
+
+    private static int find(int[] replacement, int register) {
+        while (replacement[register] != register) {
+            register = replacement[register];
+        }
+        return register;
+    }
+
+    /**
+     * Folds operations on constants that are known to succeed, turns
+     * branches on constants into jumps and removes the blocks that leaves
+     * unreachable.
+     */
+    static void propagateConstants(Ir.Function function) {
+        var constants = new HashMap<Integer, Object>();
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : function.blocks) {
+                var instructions = block.instructions;
+                for (var i = 0; i < instructions.size(); i++) {
+                    var instr = instructions.get(i);
+                    if (instr.kind == Ir.Kind.CONST) {
+                        if (!constants.containsKey(instr.result)) {
+                            constants.put(instr.result, instr.constant);
+                            changed = true;
+                        }
+                        continue;
+                    }
+
+                    var folded = fold(instr, constants);
+                    if (folded != null) {
+                        instructions.set(i, folded);
+                        changed = true;
+                    }
+                }
+
+                var terminator = block.terminator;
+                if (terminator.kind == Ir.Kind.BRANCH && constants.containsKey(terminator.args[0])) {
+                    var taken = Interpreter.isTruthy(constants.get(terminator.args[0])) ? 0 : 1;
+                    var target = terminator.targets[taken];
+                    var dropped = terminator.targets[1 - taken];
+                    block.terminator = new Ir.Instr(Ir.Kind.JUMP, -1, new int[0], null, null, target);
+                    dropped.removePredecessor(block);
+                    changed = true;
+                }
+            }
+        }
+
+        removeUnreachable(function);
+    }
+
+    private static Ir.Instr fold(Ir.Instr instr, Map<Integer, Object> constants) {
+        if (instr.kind != Ir.Kind.BINARY && instr.kind != Ir.Kind.UNARY) return null;
+        for (var arg : instr.args) {
+            if (!constants.containsKey(arg)) return null;
+        }
+
+        Object value;
+        try {
+            value = instr.kind == Ir.Kind.BINARY
+                    ? Interpreter.binary(instr.token, constants.get(instr.args[0]), constants.get(instr.args[1]))
+                    : Interpreter.unary(instr.token, constants.get(instr.args[0]));
+        } catch (RuntimeError error) {
+            // Leave it to fail when it runs.
+            return null;
+        }
+        if (value instanceof CharSequence string) {
+            value = Symbols.intern(string.toString());
+        } else if (!(value instanceof Double) && !(value instanceof Boolean)) {
+            return null;
+        }
+        return new Ir.Instr(Ir.Kind.CONST, instr.result, new int[0], value, null);
+    }
+
+    private static void removeUnreachable(Ir.Function function) {
+        var reachable = new HashSet<Ir.Block>();
+        var worklist = new ArrayDeque<Ir.Block>();
+        worklist.add(function.blocks.get(0));
+        while (!worklist.isEmpty()) {
+            var block = worklist.pop();
+            if (reachable.add(block)) worklist.addAll(block.successors());
+        }
+
+        for (var block : function.blocks) {
+            if (reachable.contains(block)) continue;
+            for (var successor : block.successors()) {
+                if (reachable.contains(successor)) successor.removePredecessor(block);
+            }
+        }
+        function.blocks.removeIf(block -> !reachable.contains(block));
+    }
+
+    /** Makes blocks that only jump on be skipped by their one predecessor. */
+    private static void removeEmptyBlocks(Ir.Function function) {
+        var entry = function.blocks.get(0);
+        function.blocks.removeIf(block -> {
+            if (block == entry || !block.phis.isEmpty() || !block.instructions.isEmpty() ||
+                    block.terminator.kind != Ir.Kind.JUMP || block.predecessors.size() != 1) {
+                return false;
+            }
+
+            var predecessor = block.predecessors.get(0);
+            var target = block.terminator.targets[0];
+            if (target == block || target.predecessors.contains(predecessor)) return false;
+
+            var targets = predecessor.terminator.targets;
+            for (var i = 0; i < targets.length; i++) {
+                if (targets[i] == block) targets[i] = target;
+            }
+            target.predecessors.set(target.predecessors.indexOf(block), predecessor);
+            return true;
+        });
+    }
+
+    /** Infers which registers always hold numbers, booleans or nil. */
+    static void inferTypes(Ir.Function function) {
+        var types = new Ir.Type[function.registers];
+        Arrays.fill(types, Ir.Type.NONE);
+
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : function.blocks) {
+                for (var list : List.of(block.phis, block.instructions)) {
+                    for (var instr : list) {
+                        if (instr.result == -1) continue;
+                        var type = typeOf(instr, types);
+                        if (type != types[instr.result]) {
+                            types[instr.result] = type;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        for (var i = 0; i < types.length; i++) {
+            if (types[i] == Ir.Type.NONE) types[i] = Ir.Type.ANY;
+        }
+        function.types = types;
+    }
+
+    private static Ir.Type typeOf(Ir.Instr instr, Ir.Type[] types) {
+        return switch (instr.kind) {
+            case CONST -> Ir.Type.of(instr.constant);
+            case COPY -> types[instr.args[0]];
+            case PHI -> {
+                var type = Ir.Type.NONE;
+                for (var arg : instr.args) type = type.join(types[arg]);
+                yield type;
+            }
+            case UNARY -> instr.token.type() == TokenType.BANG ? Ir.Type.BOOLEAN : Ir.Type.NUMBER;
+            case BINARY -> switch (instr.token.type()) {
+                case MINUS, STAR, SLASH -> Ir.Type.NUMBER;
+                case PLUS -> {
+                    var left = types[instr.args[0]];
+                    var right = types[instr.args[1]];
+                    if (left == Ir.Type.NONE || right == Ir.Type.NONE) yield Ir.Type.NONE;
+                    if (left == Ir.Type.NUMBER && right == Ir.Type.NUMBER) yield Ir.Type.NUMBER;
+                    yield Ir.Type.ANY;
+                }
+                default -> Ir.Type.BOOLEAN;
+            };
+            default -> Ir.Type.ANY;
+        };
+    }
+
+    /**
+     * Removes instructions whose result is never used and that can't fail
+     * or have an effect: constants, parameters, phis, copies, and operators
+     * whose operands are of types they can't fail on.
+     */
+    static void eliminateDeadStores(Ir.Function function) {
+        var uses = new int[function.registers];
+        forEachInstr(function, instr -> {
+            for (var arg : instr.args) uses[arg]++;
+        });
+
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : function.blocks) {
+                for (var list : List.of(block.phis, block.instructions)) {
+                    for (var iterator = list.iterator(); iterator.hasNext(); ) {
+                        var instr = iterator.next();
+                        if (instr.result == -1 || uses[instr.result] > 0 ||
+                                !isRemovable(instr, function.types)) {
+                            continue;
+                        }
+                        for (var arg : instr.args) uses[arg]--;
+                        iterator.remove();
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isRemovable(Ir.Instr instr, Ir.Type[] types) {
+        return switch (instr.kind) {
+            case CONST, PARAM, PHI, COPY -> true;
+            case UNARY -> instr.token.type() == TokenType.BANG ||
+                    types[instr.args[0]] == Ir.Type.NUMBER;
+            case BINARY -> switch (instr.token.type()) {
+                case EQUAL_EQUAL, BANG_EQUAL -> true;
+                default -> types[instr.args[0]] == Ir.Type.NUMBER &&
+                        types[instr.args[1]] == Ir.Type.NUMBER;
+            };
+            default -> false;
+        };
+    }
+
+    private static void forEachInstr(Ir.Function function, java.util.function.Consumer<Ir.Instr> action) {
+        for (var block : function.blocks) {
+            block.phis.forEach(action);
+            block.instructions.forEach(action);
+            action.accept(block.terminator);
+        }
+    }
+}
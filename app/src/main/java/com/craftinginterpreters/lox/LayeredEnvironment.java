@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serial;
+
+/**
+ * Globals layered over a shared base environment. Reads fall through to
+ * the base; definitions and assignments, including assignments to names
+ * only the base defines, land in this layer, so the base is never written
+ * and {@link #reset()} undoes everything done through the layer.
+ */
+final class LayeredEnvironment extends Environment {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    LayeredEnvironment(Environment base) {
+        super(base);
+    }
+
+    @Override
+    Object getAt(int distance, String name) {
+        if (distance == 0 && !values().containsKey(name)) return enclosing.getAt(0, name);
+        return super.getAt(distance, name);
+    }
+
+    @Override
+    void assign(Token name, Object value) {
+        // Fails the same way an unlayered environment does for undefined names.
+        if (!values().containsKey(name.lexeme())) enclosing.get(name);
+        define(name.lexeme(), value);
+    }
+
+    void reset() {
+        clear();
+    }
+}
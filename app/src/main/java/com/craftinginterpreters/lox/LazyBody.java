@@ -0,0 +1,91 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The body of a function pre-parsed in lazy mode: the tokens between its
+ * braces and the names it could refer to. The body is parsed and resolved
+ * the first time it is needed, against the scopes captured when the
+ * function's declaration was resolved. A body with compile errors reports
+ * them once and then fails the same way on every call, with a runtime
+ * error. Bodies may be compiled on any thread, so each compile reports into
+ * its own {@link ErrorReporter}.
+ */
+final class LazyBody implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final Token name;
+    private final Token end;
+    private final Set<String> freeNames = new HashSet<>();
+    // Only needed until the body is compiled, which serializing it does first.
+    private transient List<Token> tokens;
+    private transient List<Token> params;
+    private transient Resolver.Context context;
+    private List<Stmt> statements;
+    private boolean failed;
+
+    LazyBody(Token name, List<Token> tokens, Token end) {
+        this.name = name;
+        this.tokens = tokens;
+        this.end = end;
+
+        for (var token : tokens) {
+            switch (token.type()) {
+            case IDENTIFIER, THIS, SUPER -> freeNames.add(token.lexeme());
+            default -> {}
+            }
+        }
+    }
+
+    Set<String> freeNames() {
+        return freeNames;
+    }
+
+    void prepare(List<Token> params, Resolver.Context context) {
+        this.params = params;
+        this.context = context;
+    }
+
+    synchronized List<Stmt> statements() {
+        if (statements == null) compile();
+        if (failed) {
+            throw new RuntimeError(name,
+                    "Function '" + name.lexeme() + "' has compile errors.");
+        }
+        return statements;
+    }
+
+    @Serial
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        if (statements == null) compile();
+        out.defaultWriteObject();
+    }
+
+    private void compile() {
+        var source = new ArrayList<>(tokens);
+        source.add(new Token(TokenType.EOF, "", null, end.line()));
+
+        var errors = new ErrorReporter();
+        statements = new Parser(source, true, errors).parse();
+        if (!errors.hadError()) {
+            new Resolver().resolveLazy(params, statements, context, errors);
+        }
+        if (!errors.hadError() && Lox.optimize) {
+            statements = new Optimizer().optimize(statements);
+        }
+
+        // The compiled statements are all that's needed from now on.
+        tokens = null;
+        context = null;
+
+        failed = errors.hadError();
+    }
+}
@@ -5,27 +5,140 @@ import java.nio.*;
 import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.function.Supplier;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
+    private static final ModuleLoader loader = new ModuleLoader();
+    private static Interpreter interpreter;
+    private static Profiler profiler;
+    private static Path profileOutput;
+    private static boolean lazy = false;
+    static boolean optimize = false;
+    static boolean bytecode = false;
+    static boolean ir = false;
+    private static Path profileDirectory;
+    static ProfileData profileData;
+    static Coverage coverage;
+    private static Path coverageOutput;
+    private static Path snapshot;
+    private static Path restore;
 
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String script = null;
+        String output = null;
+        var bufferSize = OutputSink.DEFAULT_BUFFER_SIZE;
+        for (var arg : args) {
+            if (arg.equals("--ir")) {
+                ir = true;
+            } else if (arg.equals("--bytecode")) {
+                bytecode = true;
+            } else if (arg.equals("--optimize")) {
+                optimize = true;
+            } else if (arg.equals("--lazy")) {
+                lazy = true;
+            } else if (arg.equals("--metrics")) {
+                System.setProperty("jlox.metrics", "true");
+            } else if (arg.equals("--profile")) {
+                profileOutput = Paths.get("profile.folded");
+            } else if (arg.startsWith("--profile=")) {
+                profileOutput = Paths.get(arg.substring("--profile=".length()));
+            } else if (arg.equals("--coverage")) {
+                coverageOutput = Paths.get("coverage.info");
+            } else if (arg.startsWith("--coverage=")) {
+                coverageOutput = Paths.get(arg.substring("--coverage=".length()));
+            } else if (arg.equals("--pgo")) {
+                profileDirectory = Paths.get(System.getProperty("user.home"), ".jlox", "pgo");
+            } else if (arg.startsWith("--pgo=")) {
+                profileDirectory = Paths.get(arg.substring("--pgo=".length()));
+            } else if (arg.startsWith("--snapshot=")) {
+                snapshot = Paths.get(arg.substring("--snapshot=".length()));
+            } else if (arg.startsWith("--restore=")) {
+                restore = Paths.get(arg.substring("--restore=".length()));
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring("--output=".length());
+            } else if (arg.startsWith("--output-buffer=")) {
+                bufferSize = parseSize(arg.substring("--output-buffer=".length()));
+            } else if (arg.startsWith("--") || script != null) {
+                usage();
+            } else {
+                script = arg;
+            }
+        }
+        if (snapshot != null && script == null) usage();
+        if (coverageOutput != null) {
+            // Probes are only counted by the tree-walker, on eagerly parsed code.
+            coverage = new Coverage();
+            lazy = optimize = bytecode = ir = false;
+        }
+
+        var out = output == null
+                ? OutputSink.stdout(bufferSize)
+                : OutputSink.file(Paths.get(output), bufferSize);
+        interpreter = new Interpreter(out);
+        if (restore != null) {
+            try {
+                Snapshot.read(restore, interpreter.globals);
+            } catch (IOException e) {
+                System.err.println("Can't restore snapshot " + restore + ": " + e.getMessage());
+                System.exit(66);
+            }
+        }
+        if (profileOutput != null) {
+            profiler = Profiler.start(interpreter.callStack(), 1000);
+        }
+
+        if (script != null) {
+            runFile(script);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [options] [script]");
+        System.out.println("  --lazy                 compile function bodies on their first call");
+        System.out.println("  --bytecode             run functions that need no closures on the bytecode VM");
+        System.out.println("  --ir                   run functions that need no closures as optimized SSA IR");
+        System.out.println("  --optimize             hoist loop-invariant code and run counting loops on a primitive counter");
+        System.out.println("  --snapshot=file        after running the script, save its globals to file");
+        System.out.println("  --restore=file         start with the globals saved by --snapshot");
+        System.out.println("  --output=file          write print output to file");
+        System.out.println("  --output-buffer=bytes  size of the print output buffer");
+        System.out.println("  --profile[=file]       sample Lox call stacks into a collapsed-stack file");
+        System.out.println("  --coverage[=file]      count statement and branch hits into an LCOV (or .json) file");
+        System.out.println("  --pgo[=directory]      keep call counts and type feedback between runs of a script");
+        System.out.println("  --metrics              count interpreter events, publish them over JMX and print them at exit");
+        System.exit(64);
+    }
+
+    private static int parseSize(String size) {
+        try {
+            var bytes = Integer.parseInt(size);
+            if (bytes > 0) return bytes;
+        } catch (NumberFormatException e) {
+            // Fall through to the usage message.
+        }
+        usage();
+        return 0;
+    }
+
     private static void runFile(String path) throws IOException {
         var bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        var source = new String(bytes, Charset.defaultCharset());
+        if (profileDirectory != null) {
+            profileData = ProfileData.load(profileDirectory, Paths.get(path), source);
+        }
+        try {
+            run(source, new Resolver(), Paths.get(path));
+            if (snapshot != null && !hadError && !hadRuntimeError) {
+                phase("snapshot", Lox::writeSnapshot);
+            }
+        } finally {
+            finish();
+        }
 
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
@@ -34,52 +147,126 @@ public class Lox {
     private static void runPrompt() throws IOException {
         var input = new InputStreamReader(System.in);
         var reader = new BufferedReader(input);
+        var resolver = new Resolver();
         while(true) {
             System.out.print("> ");
             var line = reader.readLine();
             if (line == null) break;
-            run(line);
+            run(line, resolver, Paths.get("<stdin>"));
+            interpreter.out().flush();
 
             hadError = false;
         }
+        finish();
     }
 
-    private static void run(String source) {
-        var scanner = new Scanner(source);
-        var tokens = scanner.scanTokens();
-        var parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+    private static void writeSnapshot() {
+        try {
+            Snapshot.write(snapshot, interpreter.globals);
+        } catch (RuntimeError error) {
+            runtimeError(error);
+        } catch (IOException e) {
+            System.err.println("Can't write snapshot " + snapshot + ": " + e.getMessage());
+            hadRuntimeError = true;
+        }
+    }
 
-        if (hadError) return;
+    private static void finish() throws IOException {
+        interpreter.out().flush();
+        if (profiler != null) {
+            profiler.stop();
+            profiler.writeCollapsed(profileOutput);
+            profiler.printTable(System.err);
+        }
+        if (Metrics.ENABLED) System.err.println(Metrics.INSTANCE);
+        if (profileData != null) profileData.save();
+        if (coverage != null) coverage.write(coverageOutput);
+    }
 
-        var resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
+    private static void run(String source, Resolver resolver, Path path) {
+        var statements = compile(source, resolver, path);
 
         if (hadError) return;
 
-        interpreter.interpret(statements);
+        var errors = new ErrorReporter();
+        var module = phase("link", () -> loader.link(path, statements, errors));
+
+        if (errors.hadError()) {
+            hadError = true;
+            return;
+        }
+
+        // Only running Lox code is sampled, not compiling it or waiting for input.
+        if (profiler != null) profiler.resume();
+        try {
+            if (phase("interpret", () -> interpreter.interpret(module))) {
+                phase("events", interpreter::runEvents);
+            }
+        } finally {
+            if (profiler != null) profiler.pause();
+        }
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    static List<Stmt> compile(String source, Resolver resolver, Path path) {
+        var errors = new ErrorReporter();
+        var statements = compile(source, resolver, path, errors);
+        if (errors.hadError()) hadError = true;
+        return statements;
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line() + "]") ;
-        hadRuntimeError = true;
+    /** Compiles without touching {@link #hadError}, so it can run on any thread. */
+    static List<Stmt> compile(String source, Resolver resolver, Path path,
+                              ErrorReporter errors) {
+        var scanner = new Scanner(source, errors);
+        var tokens = phase("scan", scanner::scanTokens);
+        var parser = new Parser(tokens, lazy, errors);
+        List<Stmt> statements = phase("parse", parser::parse);
+
+        if (parser.hadError()) return statements;
+
+        phase("resolve", () -> resolver.resolve(statements, errors));
+
+        if (errors.hadError()) return statements;
+        if (coverage != null) return coverage.instrument(path, statements);
+        if (!optimize) return statements;
+        return phase("optimize", () -> new Optimizer().optimizeScript(statements));
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    private static <T> T phase(String name, Supplier<T> work) {
+        var event = new LoxEvents.Phase(name);
+        event.begin();
+        var start = Metrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            return work.get();
+        } finally {
+            event.commit();
+            if (Metrics.ENABLED) Metrics.INSTANCE.phase(name, System.nanoTime() - start);
+        }
     }
 
-    static void error(Token token, String message) {
-        if (token.type() == TokenType.EOF) {
-            report(token.line(), " at end", message);
-        } else {
-            report(token.line(), " at '" + token.lexeme() + "'", message);
+    private static void phase(String name, Runnable work) {
+        phase(name, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    static void runtimeError(RuntimeError error) {
+        var message = new StringBuilder(error.getMessage());
+        if (error.trace().isEmpty()) {
+            message.append("\n[line ").append(error.token.line()).append("]");
         }
+        for (var frame : error.trace()) {
+            message.append("\n[line ").append(frame.line()).append("] in ")
+                    .append(frame.function() == null ? "script" : frame.function() + "()");
+        }
+        System.err.println(message);
+        hadRuntimeError = true;
+    }
+
+    /** Reports a problem that doesn't stop the script from running. */
+    static void warning(Token token, String message) {
+        System.err.println("[line " + token.line() + "] Warning at '" +
+                token.lexeme() + "': " + message);
     }
 }
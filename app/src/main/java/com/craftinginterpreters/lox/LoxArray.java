@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+final class LoxArray implements LoxIterable, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final List<Object> elements;
+
+    LoxArray(List<Object> elements) {
+        this.elements = elements;
+    }
+
+    LoxArray(int length) {
+        this(new ArrayList<>(length));
+        for (int i = 0; i < length; i++) {
+            elements.add(null);
+        }
+    }
+
+    int length() {
+        return elements.size();
+    }
+
+    Object get(int index) {
+        return elements.get(index);
+    }
+
+    void set(int index, Object value) {
+        elements.set(index, value);
+    }
+
+    void add(Object value) {
+        elements.add(value);
+    }
+
+    List<Object> elements() {
+        return elements;
+    }
+
+    // Reads the array as it is when each element is reached, so a loop
+    // sees elements pushed while it runs.
+    @Override
+    public Cursor iterator(Interpreter interpreter) {
+        return new Cursor() {
+            private int index = -1;
+
+            @Override
+            public boolean advance() {
+                return ++index < elements.size();
+            }
+
+            @Override
+            public Object current() {
+                return elements.get(index);
+            }
+        };
+    }
+}
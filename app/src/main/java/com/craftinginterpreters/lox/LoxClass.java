@@ -0,0 +1,53 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+final class LoxClass implements LoxCallable, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    final String name;
+    final LoxClass superclass;
+    final Shape shape = Shape.root();
+    private final Map<String, LoxFunction> methods;
+
+    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+        this.name = name;
+        this.superclass = superclass;
+        this.methods = methods;
+    }
+
+    LoxFunction findMethod(String name) {
+        var method = methods.get(name);
+        if (method != null) return method;
+
+        if (superclass != null) return superclass.findMethod(name);
+
+        return null;
+    }
+
+    @Override
+    public int arity() {
+        var initializer = findMethod("init");
+        if (initializer == null) return 0;
+        return initializer.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        var instance = new LoxInstance(this);
+        var initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.bind(instance).call(interpreter, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,108 @@
+package com.craftinginterpreters.lox;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed set of interpreters for running many short scripts, such as one
+ * per request in a service. A setup script runs once, when the pool is
+ * created, and every context starts from the globals it left behind: each
+ * context's globals are a {@link LayeredEnvironment} over them, so a
+ * script can define and assign globals without other contexts seeing it,
+ * and releasing the context only has to drop that layer.
+ *
+ * <p>Only bindings are copied on write. An instance or array the setup
+ * script created is shared, and a script that changes its fields or
+ * elements changes them for every later script.
+ *
+ * <p>Compile and runtime errors are reported to standard error as they are
+ * for the command line. Each compile reports into its own
+ * {@link ErrorReporter}, so contexts compile and run without locking.
+ */
+public final class LoxContextPool {
+    private static final Path SCRIPT = Path.of("<script>");
+
+    public record Result(String output, boolean succeeded) {}
+
+    /** An interpreter, its layer of globals and the output it has printed. */
+    public final class Context {
+        private final LayeredEnvironment globals = new LayeredEnvironment(base);
+        private final StringWriter output = new StringWriter();
+        private final Interpreter interpreter =
+                new Interpreter(globals, new OutputSink(output, OutputSink.DEFAULT_BUFFER_SIZE));
+
+        private Context() {}
+
+        public Result run(String source) {
+            var module = LoxContextPool.compile(source);
+            var succeeded = module != null && interpreter.interpret(module) &&
+                    interpreter.runEvents();
+            interpreter.out().flush();
+
+            var printed = output.toString();
+            output.getBuffer().setLength(0);
+            return new Result(printed, succeeded);
+        }
+
+        private void reset() {
+            globals.reset();
+            output.getBuffer().setLength(0);
+        }
+    }
+
+    private final Environment base;
+    private final BlockingQueue<Context> idle;
+
+    /**
+     * Runs {@code setup} and creates {@code size} contexts that start from
+     * its globals. Throws IllegalArgumentException if the setup script
+     * fails.
+     */
+    public LoxContextPool(int size, String setup) {
+        var interpreter = new Interpreter(OutputSink.stdout(OutputSink.DEFAULT_BUFFER_SIZE));
+        var module = compile(setup);
+        if (module == null || !interpreter.interpret(module)) {
+            throw new IllegalArgumentException("Setup script failed.");
+        }
+        interpreter.out().flush();
+
+        base = interpreter.globals;
+        idle = new ArrayBlockingQueue<>(size);
+        for (var i = 0; i < size; i++) {
+            idle.add(new Context());
+        }
+    }
+
+    /** Takes a context, waiting for one to be released if none is idle. */
+    public Context acquire() throws InterruptedException {
+        return idle.take();
+    }
+
+    /** Undoes what the context's scripts did to its globals and makes it idle. */
+    public void release(Context context) {
+        context.reset();
+        idle.add(context);
+    }
+
+    /** Runs {@code source} in an idle context. */
+    public Result run(String source) throws InterruptedException {
+        var context = acquire();
+        try {
+            return context.run(source);
+        } finally {
+            release(context);
+        }
+    }
+
+    private static Module compile(String source) {
+        var errors = new ErrorReporter();
+        var statements = Lox.compile(source, new Resolver(), SCRIPT, errors);
+        if (errors.hadError()) return null;
+
+        // A new loader each time: a loader runs each module only once.
+        var module = new ModuleLoader().link(SCRIPT, statements, errors);
+        return errors.hadError() ? null : module;
+    }
+}
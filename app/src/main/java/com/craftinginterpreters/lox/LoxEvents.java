@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder events for interpreter internals. An event that isn't
+ * enabled in the running recording costs a couple of untaken branches, so
+ * these are emitted unconditionally.
+ */
+final class LoxEvents {
+    private LoxEvents() {}
+
+    @Name("jlox.Phase")
+    @Label("Lox Phase")
+    @Category("Lox")
+    @Description("Time spent scanning, parsing, resolving or interpreting a script")
+    static final class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        Phase(String phase) {
+            this.phase = phase;
+        }
+    }
+
+    @Name("jlox.FunctionCall")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @Enabled(false)
+    @Threshold("1 ms")
+    static final class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jlox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class RuntimeError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+}
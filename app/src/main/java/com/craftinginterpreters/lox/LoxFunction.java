@@ -1,9 +1,20 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-record LoxFunction(Stmt.Function declaration, Environment closure)
-        implements LoxCallable {
+record LoxFunction(Stmt.Function declaration, Environment closure,
+                   boolean isInitializer) implements LoxCallable, Serializable {
+
+    LoxFunction(Stmt.Function declaration, Environment closure) {
+        this(declaration, closure, false);
+    }
+
+    LoxFunction bind(LoxInstance instance) {
+        var environment = new Environment(closure);
+        environment.define("this", instance);
+        return new LoxFunction(declaration, environment, isInitializer);
+    }
 
     @Override
     public int arity() {
@@ -12,19 +23,57 @@ record LoxFunction(Stmt.Function declaration, Environment closure)
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        var environment = new Environment(closure);
-        for (int i = 0; i < declaration.params().size(); i++) {
-            environment.define(declaration.params().get(i).lexeme(),
-                    arguments.get(i));
+        if (!isInitializer && declaration.compilation().generator(declaration)) {
+            return new Generator(interpreter, this, arguments);
         }
+        if (Metrics.ENABLED) Metrics.INSTANCE.functionCalled(declaration.name());
+        if (Lox.profileData != null) declaration.compilation().called();
+        var event = new LoxEvents.FunctionCall();
+        event.begin();
+
+        var callStack = interpreter.callStack();
+        callStack.push(declaration.name().lexeme(), declaration.name().line());
         try {
-            interpreter.executeBlock(declaration.body(), environment);
+            if (Lox.ir && !isInitializer) {
+                var ir = declaration.compilation().ir(declaration);
+                if (ir != null) return IrInterpreter.run(interpreter, ir, arguments);
+            }
+            if (Lox.bytecode && !isInitializer) {
+                var chunk = declaration.compilation().chunk(declaration);
+                if (chunk != null) return VM.run(interpreter, chunk, arguments);
+            }
+
+            interpreter.executeBlock(declaration.body(), environment(arguments));
         } catch (Return returnValue) {
+            if (isInitializer) return closure.getAt(0, "this");
+
             return returnValue.value;
+        } catch (RuntimeError error) {
+            error.unwound(declaration.name().lexeme(), callStack.line());
+            throw error;
+        } finally {
+            callStack.pop();
+            if (event.shouldCommit()) {
+                event.function = declaration.name().lexeme();
+                event.line = declaration.name().line();
+                event.commit();
+            }
         }
+
+        if (isInitializer) return closure.getAt(0, "this");
         return null;
     }
 
+    /** A scope for a call's body, with the parameters bound to {@code arguments}. */
+    Environment environment(List<Object> arguments) {
+        var environment = new Environment(closure);
+        for (int i = 0; i < declaration.params().size(); i++) {
+            environment.define(declaration.params().get(i).lexeme(),
+                    arguments.get(i));
+        }
+        return environment;
+    }
+
     @Override
     public String toString() {
         return "<fn " + declaration.name().lexeme() + ">";
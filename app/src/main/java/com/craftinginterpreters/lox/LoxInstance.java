@@ -0,0 +1,33 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+final class LoxInstance implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    final LoxClass klass;
+    Shape shape;
+    Object[] fields = NO_FIELDS;
+
+    LoxInstance(LoxClass klass) {
+        this.klass = klass;
+        this.shape = klass.shape;
+    }
+
+    void transition(Shape next) {
+        if (next.size() > fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
+        shape = next;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox;
+
+/** A value a for-in loop can walk. Each loop asks it for a new cursor. */
+interface LoxIterable {
+    Cursor iterator(Interpreter interpreter);
+
+    /**
+     * A position in an iterable, before its first value until advanced.
+     * A cursor can hold a thread or an open file, so whoever asks for one
+     * closes it, even when it stops early. Any method may throw a
+     * {@link NativeError}.
+     */
+    interface Cursor extends AutoCloseable {
+        /** Moves to the next value, returning false if there is none. */
+        boolean advance();
+
+        Object current();
+
+        @Override
+        default void close() {}
+    }
+}
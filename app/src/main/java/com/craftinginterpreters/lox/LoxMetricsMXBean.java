@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+
+public interface LoxMetricsMXBean {
+    Map<String, Long> getFunctionCalls();
+
+    long getEnvironmentsAllocated();
+
+    long getRuntimeErrors();
+
+    long getStringCharsBuilt();
+
+    Map<String, Long> getPhaseNanos();
+}
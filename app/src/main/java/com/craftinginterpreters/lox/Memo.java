@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A function wrapped by {@code memo(fn)}: calls with arguments it has seen
+ * return the cached result instead of calling {@code fn} again. Arguments
+ * match the way {@code ==} compares them, so instances and arrays match
+ * only themselves. The cache keeps the {@link #CAPACITY} most recently
+ * used results. {@code memoStats(fn)} returns
+ * {@code [hits, misses, evictions, size]}.
+ *
+ * <p>A recursive function only reuses results for its recursive calls if
+ * they go through the wrapper, as they do after {@code fib = memo(fib);}.
+ * {@code memo} warns when {@link Purity} finds the function has side
+ * effects, which cached calls skip, or reads variables that could change
+ * what it returns.
+ */
+final class Memo implements LoxCallable {
+    static final int CAPACITY = 1 << 16;
+
+    private record Key(Object[] arguments) {
+        Key(List<Object> arguments) {
+            this(arguments.stream()
+                    .map(value -> value instanceof CharSequence s
+                            ? Symbols.intern(s.toString()) : value)
+                    .toArray());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && Arrays.equals(arguments, key.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(arguments);
+        }
+    }
+
+    private final LoxCallable function;
+    private final Map<Key, Object> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            if (size() <= CAPACITY) return false;
+            evictions++;
+            return true;
+        }
+    };
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    Memo(LoxCallable function) {
+        this.function = function;
+    }
+
+    static void define(Environment globals) {
+        Natives.define(globals, new NativeFunction("memo", 1, false,
+                (interpreter, arguments) -> {
+                    if (!(arguments.get(0) instanceof LoxCallable function)) {
+                        throw new NativeError("Expected a function.");
+                    }
+                    if (function instanceof Memo memo) return memo;
+
+                    var site = new Token(TokenType.IDENTIFIER, "memo", null,
+                            interpreter.callStack().line());
+                    if (!Purity.isPure(interpreter, function)) {
+                        Lox.warning(site, "Memoized " + function +
+                                " may have side effects, which cached calls skip.");
+                    } else if (Purity.readsOuterState(interpreter, function)) {
+                        Lox.warning(site, "Memoized " + function + " reads variables " +
+                                "outside it; cached results ignore changes to them.");
+                    }
+                    return new Memo(function);
+                }));
+        Natives.define(globals, new NativeFunction("memoStats", 1, false,
+                (interpreter, arguments) -> {
+                    if (arguments.get(0) instanceof Memo memo) return memo.stats();
+                    throw new NativeError("Expected a memoized function.");
+                }));
+    }
+
+    LoxCallable function() {
+        return function;
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    // The lock isn't held while the function runs, so parallel callers
+    // missing on the same arguments may each compute the result.
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        var key = new Key(arguments);
+        synchronized (cache) {
+            var result = cache.get(key);
+            if (result != null || cache.containsKey(key)) {
+                hits++;
+                return result;
+            }
+            misses++;
+        }
+
+        var result = function.call(interpreter, arguments);
+        synchronized (cache) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    private LoxArray stats() {
+        synchronized (cache) {
+            return new LoxArray(new ArrayList<>(List.of(
+                    (double) hits, (double) misses, (double) evictions, (double) cache.size())));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
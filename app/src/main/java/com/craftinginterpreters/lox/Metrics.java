@@ -0,0 +1,103 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide interpreter counters, published over JMX as
+ * {@code com.craftinginterpreters.lox:type=Metrics}. Counting is off unless
+ * the {@code jlox.metrics} system property is set before this class is
+ * initialized, in which case every check of {@link #ENABLED} folds away.
+ */
+final class Metrics implements LoxMetricsMXBean {
+    static final boolean ENABLED = Boolean.getBoolean("jlox.metrics");
+    static final Metrics INSTANCE = new Metrics();
+
+    private final Map<Token, LongAdder> functionCalls = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> phaseNanos = new ConcurrentHashMap<>();
+    private final LongAdder environments = new LongAdder();
+    private final LongAdder runtimeErrors = new LongAdder();
+    private final LongAdder stringChars = new LongAdder();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                        new ObjectName("com.craftinginterpreters.lox:type=Metrics"));
+            } catch (JMException e) {
+                System.err.println("Could not register metrics MBean: " + e);
+            }
+        }
+    }
+
+    private Metrics() {}
+
+    void functionCalled(Token name) {
+        functionCalls.computeIfAbsent(name, n -> new LongAdder()).increment();
+    }
+
+    void environmentAllocated() {
+        environments.increment();
+    }
+
+    void runtimeErrorThrown() {
+        runtimeErrors.increment();
+    }
+
+    void stringBuilt(int chars) {
+        stringChars.add(chars);
+    }
+
+    void phase(String phase, long nanos) {
+        phaseNanos.computeIfAbsent(phase, p -> new LongAdder()).add(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getFunctionCalls() {
+        var calls = new TreeMap<String, Long>();
+        functionCalls.forEach((name, count) ->
+                calls.merge(name.lexeme() + " (line " + name.line() + ")",
+                        count.sum(), Long::sum));
+        return calls;
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getStringCharsBuilt() {
+        return stringChars.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseNanos() {
+        var nanos = new TreeMap<String, Long>();
+        phaseNanos.forEach((phase, total) -> nanos.put(phase, total.sum()));
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder();
+        builder.append("environments allocated: ").append(getEnvironmentsAllocated())
+                .append("\nruntime errors: ").append(getRuntimeErrors())
+                .append("\nstring chars built: ").append(getStringCharsBuilt());
+        getPhaseNanos().forEach((phase, nanos) -> builder.append("\n")
+                .append(phase).append(": ").append(nanos / 1_000_000.0).append(" ms"));
+        getFunctionCalls().forEach((function, calls) -> builder.append("\ncalls to ")
+                .append(function).append(": ").append(calls));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,30 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled source file. Its statements may be shared with other modules
+ * that have the same content, so what each import refers to is kept here,
+ * by import statement, rather than in the tree.
+ */
+final class Module {
+    final Path path;
+    final List<Stmt> statements;
+    final Map<Stmt.Import, Module> imports = new IdentityHashMap<>();
+    boolean executed = false;
+
+    Module(Path path, List<Stmt> statements) {
+        this.path = path;
+        this.statements = statements;
+    }
+
+    Path resolve(Stmt.Import stmt) {
+        var directory = path.getParent();
+        var target = Path.of((String) stmt.path().literal());
+        return (directory == null ? target : directory.resolve(target))
+                .toAbsolutePath().normalize();
+    }
+}
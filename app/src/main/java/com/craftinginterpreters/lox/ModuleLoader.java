@@ -0,0 +1,114 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Loads the modules a program imports. Each module is read, scanned, parsed
+ * and resolved on the fork-join pool, and starts loading its own imports as
+ * soon as it has been parsed, so independent parts of the import graph are
+ * compiled in parallel. Compiled statements are cached by a hash of the
+ * source, and every path is loaded at most once per loader. Modules that
+ * can't be read or have compile errors aren't kept, so a later link, like
+ * the next line in the REPL, loads them again.
+ */
+final class ModuleLoader {
+    // What loading a path gave: a module, or why there isn't one.
+    private record Loaded(Module module, String failure) {}
+
+    private final Map<Path, CompletableFuture<Loaded>> modules = new ConcurrentHashMap<>();
+    private final Map<String, List<Stmt>> compiled = new ConcurrentHashMap<>();
+
+    /**
+     * Loads everything {@code statements} imports, directly or not, and
+     * returns them as a module. Reports an error to {@code errors} for
+     * imports that can't be read or don't compile, and for import cycles.
+     */
+    Module link(Path path, List<Stmt> statements, ErrorReporter errors) {
+        var main = new Module(path.toAbsolutePath().normalize(), statements);
+        loadImports(main);
+        link(main, new HashSet<>(), new HashSet<>(), errors);
+        modules.values().removeIf(loading ->
+                loading.isDone() && loading.join().module() == null);
+        return main;
+    }
+
+    private void link(Module module, Set<Module> visiting, Set<Module> linked,
+                      ErrorReporter errors) {
+        if (!linked.add(module)) return;
+        visiting.add(module);
+
+        for (var stmt : imports(module.statements)) {
+            var loaded = modules.get(module.resolve(stmt)).join();
+            if (loaded.module() == null) {
+                errors.error(stmt.path(), loaded.failure());
+                continue;
+            }
+            var imported = loaded.module();
+            if (visiting.contains(imported)) {
+                errors.error(stmt.path(), "Circular import.");
+                continue;
+            }
+
+            module.imports.put(stmt, imported);
+            link(imported, visiting, linked, errors);
+        }
+
+        visiting.remove(module);
+    }
+
+    private void loadImports(Module module) {
+        for (var stmt : imports(module.statements)) {
+            modules.computeIfAbsent(module.resolve(stmt), path ->
+                    CompletableFuture.supplyAsync(() -> load(path), ForkJoinPool.commonPool()));
+        }
+    }
+
+    private Loaded load(Path path) {
+        String source;
+        try {
+            source = Files.readString(path, Charset.defaultCharset());
+        } catch (IOException e) {
+            return new Loaded(null, "Can't read module.");
+        }
+
+        var hash = hash(source);
+        var statements = compiled.get(hash);
+        if (statements == null) {
+            var errors = new ErrorReporter(path);
+            statements = Lox.compile(source, new Resolver(), path, errors);
+            if (errors.hadError()) return new Loaded(null, "Module has compile errors.");
+            compiled.putIfAbsent(hash, statements);
+        }
+
+        var module = new Module(path, statements);
+        loadImports(module);
+        return new Loaded(module, null);
+    }
+
+    private static List<Stmt.Import> imports(List<Stmt> statements) {
+        var imports = new ArrayList<Stmt.Import>();
+        for (var statement : statements) {
+            if (statement instanceof Stmt.Import stmt) imports.add(stmt);
+        }
+        return imports;
+    }
+
+    static String hash(String source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256")
+                    .digest(source.getBytes(Charset.defaultCharset()));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
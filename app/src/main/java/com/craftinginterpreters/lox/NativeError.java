@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Thrown by natives, which have no token of their own. The interpreter
+ * rethrows it as a {@link RuntimeError} at the call site.
+ */
+class NativeError extends RuntimeException {
+    NativeError(String message) {
+        super(message, null, false, false);
+    }
+}
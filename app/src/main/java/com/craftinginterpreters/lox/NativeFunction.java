@@ -0,0 +1,30 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+record NativeFunction(String name, int arity, boolean pure, Body body)
+        implements LoxCallable {
+
+    @FunctionalInterface
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        var flattened = arguments;
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i) instanceof Rope rope) {
+                if (flattened == arguments) flattened = new ArrayList<>(arguments);
+                flattened.set(i, rope.toString());
+            }
+        }
+        return body.call(interpreter, flattened);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
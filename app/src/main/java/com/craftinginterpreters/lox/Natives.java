@@ -0,0 +1,84 @@
+package com.craftinginterpreters.lox;
+
+final class Natives {
+    private Natives() {}
+
+    static void define(Environment globals) {
+        define(globals, new NativeFunction("clock", 0, true,
+                (interpreter, arguments) ->
+                        (double) System.currentTimeMillis() / 1000.0));
+
+        define(globals, new NativeFunction("array", 1, true,
+                (interpreter, arguments) ->
+                        new LoxArray(checkLength(arguments.get(0)))));
+        define(globals, new NativeFunction("length", 1, true,
+                (interpreter, arguments) ->
+                        (double) checkArray(arguments.get(0)).length()));
+        define(globals, new NativeFunction("get", 2, true,
+                (interpreter, arguments) -> {
+                    var array = checkArray(arguments.get(0));
+                    return array.get(checkIndex(array, arguments.get(1)));
+                }));
+        define(globals, new NativeFunction("set", 3, false,
+                (interpreter, arguments) -> {
+                    var array = checkArray(arguments.get(0));
+                    array.set(checkIndex(array, arguments.get(1)), arguments.get(2));
+                    return arguments.get(2);
+                }));
+        define(globals, new NativeFunction("push", 2, false,
+                (interpreter, arguments) -> {
+                    checkArray(arguments.get(0)).add(arguments.get(1));
+                    return arguments.get(1);
+                }));
+
+        // Closes either of the kinds of handle the natives below create.
+        define(globals, new NativeFunction("close", 1, false,
+                (interpreter, arguments) -> {
+                    switch (arguments.get(0)) {
+                        case EventLoop.Socket socket -> interpreter.events().close(socket);
+                        case Coroutines.Channel channel -> interpreter.coroutines().close(channel);
+                        case null, default -> throw new NativeError("Expected a socket or channel.");
+                    }
+                    return null;
+                }));
+
+        Parallel.define(globals);
+        EventLoop.define(globals);
+        Coroutines.define(globals);
+        Sequences.define(globals);
+        Memo.define(globals);
+    }
+
+    static void define(Environment globals, NativeFunction function) {
+        globals.define(function.name(), function);
+    }
+
+    static LoxArray checkArray(Object value) {
+        if (value instanceof LoxArray array) return array;
+        throw new NativeError("Expected an array.");
+    }
+
+    static LoxCallable checkFunction(Object value, int arity) {
+        if (value instanceof LoxCallable function && function.arity() == arity) {
+            return function;
+        }
+        throw new NativeError("Expected a function of " + arity +
+                (arity == 1 ? " argument." : " arguments."));
+    }
+
+    private static int checkLength(Object value) {
+        if (value instanceof Double d && d >= 0 && d == Math.floor(d) &&
+                d <= Integer.MAX_VALUE) {
+            return d.intValue();
+        }
+        throw new NativeError("Array length must be a non-negative integer.");
+    }
+
+    private static int checkIndex(LoxArray array, Object value) {
+        if (value instanceof Double d && d == Math.floor(d) &&
+                d >= 0 && d < array.length()) {
+            return d.intValue();
+        }
+        throw new NativeError("Array index out of bounds.");
+    }
+}
@@ -0,0 +1,57 @@
+package com.craftinginterpreters.lox;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formats Lox numbers the way {@code new DecimalFormat("0.#")} does. Whole
+ * numbers, which are nearly all of what scripts print, are written digit by
+ * digit without a formatter; everything else falls back to a per-thread
+ * {@link DecimalFormat}.
+ */
+final class Numbers {
+    private static final ThreadLocal<DecimalFormat> decimalFormat =
+            ThreadLocal.withInitial(() -> new DecimalFormat("0.#"));
+
+    // Locales with their own minus sign or digits must go through the format.
+    private static final boolean plainDigits;
+
+    static {
+        var symbols = DecimalFormatSymbols.getInstance();
+        plainDigits = symbols.getMinusSign() == '-' && symbols.getZeroDigit() == '0';
+    }
+
+    static final int MAX_CHARS = 17;
+
+    private Numbers() {}
+
+    static String format(double d) {
+        if (isPlainInteger(d)) return Long.toString((long) d);
+        return decimalFormat.get().format(d);
+    }
+
+    static boolean isPlainInteger(double d) {
+        return plainDigits && d == Math.rint(d) && Math.abs(d) < 0x1p53 &&
+                Double.doubleToRawLongBits(d) != Double.doubleToRawLongBits(-0.0);
+    }
+
+    /**
+     * Writes a number accepted by {@link #isPlainInteger} into the end of
+     * {@code buffer}, which must hold at least {@link #MAX_CHARS} chars, and
+     * returns the index of its first char.
+     */
+    static int getChars(double d, char[] buffer) {
+        var value = (long) d;
+        var negative = value < 0;
+        if (negative) value = -value;
+
+        var position = buffer.length;
+        do {
+            buffer[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        if (negative) buffer[--position] = '-';
+        return position;
+    }
+}
@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Opcodes of the bytecode tier. The operands that follow each opcode in a
+ * {@link Chunk} are listed beside it; "operator" and "name" are indexes of
+ * Tokens in the constant table, used for error messages and global lookups.
+ */
+final class Op {
+    private Op() {}
+
+    static final int CONST = 0;              // constant
+    static final int NIL = 1;
+    static final int TRUE = 2;
+    static final int FALSE = 3;
+    static final int POP = 4;
+    static final int GET_LOCAL = 5;          // slot
+    static final int SET_LOCAL = 6;          // slot
+    static final int GET_GLOBAL = 7;         // name
+    static final int SET_GLOBAL = 8;         // name
+    static final int ADD = 9;                // operator
+    static final int SUBTRACT = 10;          // operator
+    static final int MULTIPLY = 11;          // operator
+    static final int DIVIDE = 12;            // operator
+    static final int LESS = 13;              // operator
+    static final int LESS_EQUAL = 14;        // operator
+    static final int GREATER = 15;           // operator
+    static final int GREATER_EQUAL = 16;     // operator
+    static final int EQUAL = 17;
+    static final int NOT_EQUAL = 18;
+    static final int NOT = 19;
+    static final int NEGATE = 20;            // operator
+    static final int JUMP = 21;              // target
+    static final int JUMP_IF_FALSE = 22;     // target
+    static final int AND = 23;               // target
+    static final int OR = 24;                // target
+    static final int CALL = 25;              // argument count, paren
+    static final int PRINT = 26;
+    static final int RETURN = 27;
+
+    // Quickened forms. The generic instruction rewrites itself into one of
+    // these once it has seen operands of that type, and they rewrite
+    // themselves back when they see anything else.
+    static final int ADD_NUM = 28;           // operator
+    static final int ADD_STR = 29;           // operator
+    static final int SUBTRACT_NUM = 30;      // operator
+    static final int MULTIPLY_NUM = 31;      // operator
+    static final int DIVIDE_NUM = 32;        // operator
+    static final int LESS_NUM = 33;          // operator
+    static final int LESS_EQUAL_NUM = 34;    // operator
+    static final int GREATER_NUM = 35;       // operator
+    static final int GREATER_EQUAL_NUM = 36; // operator
+    static final int NEGATE_NUM = 37;        // operator
+
+    // Superinstructions for loop and branch tests and counter updates.
+    static final int JUMP_UNLESS_LOCAL_CONST = 38; // comparison, slot, constant, target, operator
+    static final int JUMP_UNLESS_LOCAL_LOCAL = 39; // comparison, slot, slot, target, operator
+    static final int ADD_LOCAL_CONST = 40;         // slot, constant, operator
+
+    static int generic(int op) {
+        return switch (op) {
+            case ADD_NUM, ADD_STR -> ADD;
+            case SUBTRACT_NUM -> SUBTRACT;
+            case MULTIPLY_NUM -> MULTIPLY;
+            case DIVIDE_NUM -> DIVIDE;
+            case LESS_NUM -> LESS;
+            case LESS_EQUAL_NUM -> LESS_EQUAL;
+            case GREATER_NUM -> GREATER;
+            case GREATER_EQUAL_NUM -> GREATER_EQUAL;
+            case NEGATE_NUM -> NEGATE;
+            default -> op;
+        };
+    }
+
+    static int numeric(int op) {
+        return switch (op) {
+            case ADD -> ADD_NUM;
+            case SUBTRACT -> SUBTRACT_NUM;
+            case MULTIPLY -> MULTIPLY_NUM;
+            case DIVIDE -> DIVIDE_NUM;
+            case LESS -> LESS_NUM;
+            case LESS_EQUAL -> LESS_EQUAL_NUM;
+            case GREATER -> GREATER_NUM;
+            case GREATER_EQUAL -> GREATER_EQUAL_NUM;
+            case NEGATE -> NEGATE_NUM;
+            default -> throw new IllegalArgumentException("No numeric form of " + op);
+        };
+    }
+}
@@ -0,0 +1,576 @@
+package com.craftinginterpreters.lox;
+
+import java.util.*;
+
+/**
+ * Rewrites resolved statements so loops do less work per iteration.
+ *
+ * <p>Pure expressions in a loop whose variables the loop can't change are
+ * wrapped in {@link Expr.Invariant}, so they are evaluated once per run of
+ * the loop instead of once per iteration. Evaluation still happens where the
+ * expression first runs, so a loop whose body never runs never evaluates it
+ * and errors surface at the same point as before.
+ *
+ * <p>Loops that step a local counter by a constant toward an invariant limit
+ * become {@link Stmt.CountedLoop}s, which keep the counter in a Java double.
+ *
+ * <p>In a whole script, calls to small top-level functions whose body is a
+ * single {@code return} are replaced by {@link Expr.Inline}s. A function
+ * qualifies if it is declared once, never assigned, doesn't call itself
+ * and its returned expression has at most {@link #INLINE_BUDGET} nodes.
+ * The inlined call still checks that the callee is that function, so a
+ * module or REPL line that redefines it gets the real call.
+ *
+ * <p>What a loop can change is worked out by name, conservatively: any
+ * variable with the same name as one assigned or declared in the loop is
+ * treated as changing, and if the loop makes calls, so is every global,
+ * every variable of an enclosing function, and every local that a nested
+ * function mentions.
+ */
+final class Optimizer {
+    static final int INLINE_BUDGET = 24;
+
+    private record Candidate(Stmt.Function function, Expr body) {}
+    private final Map<String, Candidate> candidates = new HashMap<>();
+
+    private Set<String> captured = Set.of();
+    private int nesting = 0;
+
+    // Facts about the loop currently being optimized.
+    private Set<String> assigned = Set.of();
+    private boolean calls = false;
+    private int slots = 0;
+
+    List<Stmt> optimizeScript(List<Stmt> statements) {
+        findCandidates(statements);
+        if (!candidates.isEmpty()) {
+            statements = inlineAll(statements);
+        }
+        return optimize(statements);
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        var enclosingCaptured = captured;
+        var enclosingNesting = nesting;
+        captured = scan(statements).captured;
+        nesting = 0;
+
+        var optimized = optimizeAll(statements);
+
+        captured = enclosingCaptured;
+        nesting = enclosingNesting;
+        return optimized;
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        var optimized = new ArrayList<Stmt>(statements.size());
+        for (var statement : statements) {
+            optimized.add(optimize(statement));
+        }
+        return optimized;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return switch (stmt) {
+            case null -> null;
+            case Stmt.Block block -> {
+                nesting++;
+                var statements = optimizeAll(block.statements());
+                nesting--;
+                yield new Stmt.Block(statements);
+            }
+            case Stmt.If branch -> new Stmt.If(branch.test(),
+                    optimize(branch.then()), optimize(branch._else()));
+            case Stmt.While loop -> optimize(loop);
+            case Stmt.ForIn loop -> {
+                nesting++;
+                var body = optimize(loop.body());
+                nesting--;
+                yield new Stmt.ForIn(loop.keyword(), loop.name(), loop.iterable(), body);
+            }
+            case Stmt.Function function -> optimize(function);
+            case Stmt.Class klass -> {
+                var methods = new ArrayList<Stmt.Function>();
+                for (var method : klass.methods()) {
+                    methods.add(optimize(method));
+                }
+                yield new Stmt.Class(klass.name(), klass.superclass(), methods);
+            }
+            default -> stmt;
+        };
+    }
+
+    private Stmt.Function optimize(Stmt.Function function) {
+        if (function.lazy() != null) return function;
+        return new Stmt.Function(function.name(), function.params(),
+                optimize(function.body()));
+    }
+
+    private Stmt optimize(Stmt.While loop) {
+        var body = optimize(loop.body());
+
+        var enclosingAssigned = assigned;
+        var enclosingCalls = calls;
+        var enclosingSlots = slots;
+        var facts = new Facts();
+        scan(loop.test(), facts, false);
+        scan(body, facts, false);
+        assigned = facts.assigned;
+        calls = facts.calls;
+        slots = 0;
+
+        var test = hoist(loop.test());
+        body = hoist(body);
+        var optimized = new Stmt.While(test, body, slots);
+        var result = countedLoop(optimized);
+
+        assigned = enclosingAssigned;
+        calls = enclosingCalls;
+        slots = enclosingSlots;
+        return result;
+    }
+
+    private Stmt countedLoop(Stmt.While loop) {
+        if (!(loop.test() instanceof Expr.Binary test) ||
+                !(test.left() instanceof Expr.Variable counter)) {
+            return loop;
+        }
+
+        switch (test.operator().type()) {
+        case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL:
+            break;
+        default:
+            return loop;
+        }
+
+        var name = counter.identifier().lexeme();
+        var depth = counter.binding().depth;
+        if (!isLocal(counter) || captured.contains(name) || !isInvariant(test.right())) {
+            return loop;
+        }
+
+        if (!(loop.body() instanceof Stmt.Block body) || body.statements().isEmpty()) {
+            return loop;
+        }
+        var statements = body.statements();
+        if (!(statements.get(statements.size() - 1) instanceof Stmt.Expression last) ||
+                !(last.expr() instanceof Expr.Assign increment) ||
+                !increment.name().lexeme().equals(name) ||
+                increment.binding().depth != depth + 1 ||
+                !(increment.value() instanceof Expr.Binary step) ||
+                !(step.left() instanceof Expr.Variable current) ||
+                !current.identifier().lexeme().equals(name) ||
+                current.binding().depth != depth + 1 ||
+                !(step.right() instanceof Expr.Literal literal) ||
+                !(literal.value() instanceof Double amount)) {
+            return loop;
+        }
+
+        double delta;
+        switch (step.operator().type()) {
+        case PLUS:
+            delta = amount;
+            break;
+        case MINUS:
+            delta = -amount;
+            break;
+        default:
+            return loop;
+        }
+
+        var rest = statements.subList(0, statements.size() - 1);
+        if (scan(rest).assigned.contains(name)) return loop;
+
+        return new Stmt.CountedLoop(counter, test.operator(), test.right(), delta,
+                new Stmt.Block(rest), loop);
+    }
+
+    private void findCandidates(List<Stmt> statements) {
+        var declarations = new HashMap<String, Integer>();
+        for (var statement : statements) {
+            var name = switch (statement) {
+                case Stmt.Var s -> s.identifier();
+                case Stmt.Function s -> s.name();
+                case Stmt.Class s -> s.name();
+                case null, default -> null;
+            };
+            if (name != null) declarations.merge(name.lexeme(), 1, Integer::sum);
+        }
+
+        var globals = scan(statements).globals;
+        for (var statement : statements) {
+            if (!(statement instanceof Stmt.Function function) ||
+                    function.lazy() != null ||
+                    declarations.get(function.name().lexeme()) != 1 ||
+                    globals.contains(function.name().lexeme()) ||
+                    function.body().size() != 1 ||
+                    !(function.body().get(0) instanceof Stmt.Return result) ||
+                    result.value() == null ||
+                    size(result.value()) > INLINE_BUDGET) {
+                continue;
+            }
+
+            var body = parameterize(result.value(), function);
+            if (body != null) {
+                candidates.put(function.name().lexeme(), new Candidate(function, body));
+            }
+        }
+    }
+
+    private static int size(Expr expr) {
+        return switch (expr) {
+            case null -> 0;
+            case Expr.Binary e -> 1 + size(e.left()) + size(e.right());
+            case Expr.Logical e -> 1 + size(e.left()) + size(e.right());
+            case Expr.Unary e -> 1 + size(e.right());
+            case Expr.Grouping e -> size(e.expr());
+            case Expr.Assign e -> 1 + size(e.value());
+            case Expr.Get e -> 1 + size(e.object());
+            case Expr.Set e -> 1 + size(e.object()) + size(e.value());
+            case Expr.Call e -> {
+                var size = 1 + size(e.callee());
+                for (var argument : e.arguments()) {
+                    size += size(argument);
+                }
+                yield size;
+            }
+            default -> 1;
+        };
+    }
+
+    /**
+     * Returns {@code expr} with the function's parameters replaced by
+     * {@link Expr.Parameter}s, or null if it can't be evaluated outside the
+     * function.
+     */
+    private static Expr parameterize(Expr expr, Stmt.Function function) {
+        return switch (expr) {
+            case Expr.Literal e -> e;
+            case Expr.Variable e -> {
+                if (e.binding().isGlobal()) yield e;
+                var params = function.params();
+                for (var i = 0; i < params.size(); i++) {
+                    if (params.get(i).lexeme().equals(e.identifier().lexeme())) {
+                        yield new Expr.Parameter(e.identifier(), i);
+                    }
+                }
+                yield null;
+            }
+            case Expr.Binary e -> {
+                var left = parameterize(e.left(), function);
+                var right = parameterize(e.right(), function);
+                yield left == null || right == null ? null : new Expr.Binary(left, e.operator(), right);
+            }
+            case Expr.Logical e -> {
+                var left = parameterize(e.left(), function);
+                var right = parameterize(e.right(), function);
+                yield left == null || right == null ? null : new Expr.Logical(left, e.operator(), right);
+            }
+            case Expr.Unary e -> {
+                var right = parameterize(e.right(), function);
+                yield right == null ? null : new Expr.Unary(e.operator(), right);
+            }
+            case Expr.Grouping e -> {
+                var inner = parameterize(e.expr(), function);
+                yield inner == null ? null : new Expr.Grouping(inner);
+            }
+            case Expr.Get e -> {
+                var object = parameterize(e.object(), function);
+                yield object == null ? null : new Expr.Get(object, e.name(), e.cache());
+            }
+            case Expr.Call e -> {
+                if (e.callee() instanceof Expr.Variable callee &&
+                        callee.identifier().lexeme().equals(function.name().lexeme())) {
+                    yield null;
+                }
+                var target = parameterize(e.callee(), function);
+                if (target == null) yield null;
+                var arguments = new ArrayList<Expr>(e.arguments().size());
+                for (var argument : e.arguments()) {
+                    var parameterized = parameterize(argument, function);
+                    if (parameterized == null) yield null;
+                    arguments.add(parameterized);
+                }
+                yield new Expr.Call(target, e.paren(), arguments);
+            }
+            default -> null;
+        };
+    }
+
+    private List<Stmt> inlineAll(List<Stmt> statements) {
+        var inlined = new ArrayList<Stmt>(statements.size());
+        for (var statement : statements) {
+            inlined.add(inline(statement));
+        }
+        return inlined;
+    }
+
+    private Stmt inline(Stmt stmt) {
+        return switch (stmt) {
+            case null -> null;
+            case Stmt.Expression s -> new Stmt.Expression(inline(s.expr()));
+            case Stmt.Print s -> new Stmt.Print(s.keyword(), inline(s.expr()));
+            case Stmt.Return s -> new Stmt.Return(s.keyword(), inline(s.value()));
+            case Stmt.Var s -> new Stmt.Var(s.identifier(), inline(s.expr()));
+            case Stmt.Block s -> new Stmt.Block(inlineAll(s.statements()));
+            case Stmt.If s -> new Stmt.If(inline(s.test()), inline(s.then()), inline(s._else()));
+            case Stmt.While s -> new Stmt.While(inline(s.test()), inline(s.body()), s.invariants());
+            case Stmt.ForIn s -> new Stmt.ForIn(s.keyword(), s.name(), inline(s.iterable()),
+                    inline(s.body()));
+            case Stmt.Yield s -> new Stmt.Yield(s.keyword(), inline(s.value()));
+            case Stmt.Function s -> inline(s);
+            case Stmt.Class s -> {
+                var methods = new ArrayList<Stmt.Function>();
+                for (var method : s.methods()) {
+                    methods.add(inline(method));
+                }
+                yield new Stmt.Class(s.name(), s.superclass(), methods);
+            }
+            default -> stmt;
+        };
+    }
+
+    private Stmt.Function inline(Stmt.Function function) {
+        if (function.lazy() != null) return function;
+        return new Stmt.Function(function.name(), function.params(),
+                inlineAll(function.body()));
+    }
+
+    private Expr inline(Expr expr) {
+        return switch (expr) {
+            case null -> null;
+            case Expr.Binary e -> new Expr.Binary(inline(e.left()), e.operator(), inline(e.right()));
+            case Expr.Logical e -> new Expr.Logical(inline(e.left()), e.operator(), inline(e.right()));
+            case Expr.Unary e -> new Expr.Unary(e.operator(), inline(e.right()));
+            case Expr.Grouping e -> new Expr.Grouping(inline(e.expr()));
+            case Expr.Assign e -> new Expr.Assign(e.name(), inline(e.value()), e.binding());
+            case Expr.Get e -> new Expr.Get(inline(e.object()), e.name(), e.cache());
+            case Expr.Set e -> new Expr.Set(inline(e.object()), e.name(), inline(e.value()), e.cache());
+            case Expr.Call e -> {
+                var arguments = new ArrayList<Expr>(e.arguments().size());
+                for (var argument : e.arguments()) {
+                    arguments.add(inline(argument));
+                }
+                var call = new Expr.Call(inline(e.callee()), e.paren(), arguments);
+
+                if (e.callee() instanceof Expr.Variable callee && callee.binding().isGlobal()) {
+                    var candidate = candidates.get(callee.identifier().lexeme());
+                    if (candidate != null && candidate.function().params().size() == arguments.size()) {
+                        yield new Expr.Inline(call, candidate.function().name(), candidate.body());
+                    }
+                }
+                yield call;
+            }
+            default -> expr;
+        };
+    }
+
+    private Stmt hoist(Stmt stmt) {
+        return switch (stmt) {
+            case null -> null;
+            case Stmt.Expression s -> new Stmt.Expression(hoist(s.expr()));
+            case Stmt.Print s -> new Stmt.Print(s.keyword(), hoist(s.expr()));
+            case Stmt.Return s -> new Stmt.Return(s.keyword(), hoist(s.value()));
+            case Stmt.Var s -> new Stmt.Var(s.identifier(), hoist(s.expr()));
+            case Stmt.If s -> new Stmt.If(hoist(s.test()), hoist(s.then()), hoist(s._else()));
+            case Stmt.Yield s -> new Stmt.Yield(s.keyword(), hoist(s.value()));
+            case Stmt.Block s -> {
+                nesting++;
+                var statements = new ArrayList<Stmt>(s.statements().size());
+                for (var statement : s.statements()) {
+                    statements.add(hoist(statement));
+                }
+                nesting--;
+                yield new Stmt.Block(statements);
+            }
+            // Nested loops have been optimized on their own, and functions
+            // and classes only run when called.
+            default -> stmt;
+        };
+    }
+
+    private Expr hoist(Expr expr) {
+        if (expr == null) return null;
+        if (isWorthHoisting(expr) && isInvariant(expr)) {
+            return new Expr.Invariant(expr, slots++);
+        }
+
+        return switch (expr) {
+            case Expr.Binary e -> new Expr.Binary(hoist(e.left()), e.operator(), hoist(e.right()));
+            case Expr.Logical e -> new Expr.Logical(hoist(e.left()), e.operator(), hoist(e.right()));
+            case Expr.Unary e -> new Expr.Unary(e.operator(), hoist(e.right()));
+            case Expr.Grouping e -> new Expr.Grouping(hoist(e.expr()));
+            case Expr.Assign e -> new Expr.Assign(e.name(), hoist(e.value()), e.binding());
+            case Expr.Call e -> {
+                var arguments = new ArrayList<Expr>(e.arguments().size());
+                for (var argument : e.arguments()) {
+                    arguments.add(hoist(argument));
+                }
+                yield new Expr.Call(hoist(e.callee()), e.paren(), arguments);
+            }
+            case Expr.Get e -> new Expr.Get(hoist(e.object()), e.name(), e.cache());
+            case Expr.Set e -> new Expr.Set(hoist(e.object()), e.name(), hoist(e.value()), e.cache());
+            default -> expr;
+        };
+    }
+
+    private static boolean isWorthHoisting(Expr expr) {
+        return switch (expr) {
+            case Expr.Binary e -> true;
+            case Expr.Logical e -> true;
+            case Expr.Unary e -> true;
+            case Expr.Grouping e -> isWorthHoisting(e.expr());
+            default -> false;
+        };
+    }
+
+    private boolean isInvariant(Expr expr) {
+        return switch (expr) {
+            case Expr.Literal e -> true;
+            case Expr.Invariant e -> true;
+            case Expr.Grouping e -> isInvariant(e.expr());
+            case Expr.Unary e -> isInvariant(e.right());
+            case Expr.Binary e -> isInvariant(e.left()) && isInvariant(e.right());
+            case Expr.Logical e -> isInvariant(e.left()) && isInvariant(e.right());
+            case Expr.Variable e -> isInvariant(e);
+            default -> false;
+        };
+    }
+
+    private boolean isInvariant(Expr.Variable variable) {
+        var name = variable.identifier().lexeme();
+        if (assigned.contains(name)) return false;
+        if (!calls) return true;
+        return isLocal(variable) && !captured.contains(name);
+    }
+
+    private boolean isLocal(Expr.Variable variable) {
+        return !variable.binding().isGlobal() && variable.binding().depth <= nesting;
+    }
+
+    private static final class Facts {
+        final Set<String> assigned = new HashSet<>();
+        final Set<String> captured = new HashSet<>();
+        final Set<String> globals = new HashSet<>();
+        boolean calls = false;
+    }
+
+    private static Facts scan(List<Stmt> statements) {
+        var facts = new Facts();
+        for (var statement : statements) {
+            scan(statement, facts, false);
+        }
+        return facts;
+    }
+
+    private static void scan(Stmt stmt, Facts facts, boolean nested) {
+        switch (stmt) {
+            case null -> {}
+            case Stmt.Expression s -> scan(s.expr(), facts, nested);
+            case Stmt.Print s -> scan(s.expr(), facts, nested);
+            case Stmt.Return s -> scan(s.value(), facts, nested);
+            case Stmt.Var s -> {
+                facts.assigned.add(s.identifier().lexeme());
+                scan(s.expr(), facts, nested);
+            }
+            case Stmt.Block s -> {
+                for (var statement : s.statements()) {
+                    scan(statement, facts, nested);
+                }
+            }
+            case Stmt.If s -> {
+                scan(s.test(), facts, nested);
+                scan(s.then(), facts, nested);
+                scan(s._else(), facts, nested);
+            }
+            case Stmt.While s -> {
+                scan(s.test(), facts, nested);
+                scan(s.body(), facts, nested);
+            }
+            case Stmt.CountedLoop s -> scan(s.loop(), facts, nested);
+            case Stmt.Covered s -> scan(s.stmt(), facts, nested);
+            case Stmt.ForIn s -> {
+                // Advancing the cursor can run any code.
+                facts.calls = true;
+                facts.assigned.add(s.name().lexeme());
+                scan(s.iterable(), facts, nested);
+                scan(s.body(), facts, nested);
+            }
+            case Stmt.Yield s -> {
+                // The consumer runs while the generator waits in the yield.
+                facts.calls = true;
+                scan(s.value(), facts, nested);
+            }
+            case Stmt.Function s -> {
+                facts.assigned.add(s.name().lexeme());
+                scanFunction(s, facts);
+            }
+            case Stmt.Class s -> {
+                facts.assigned.add(s.name().lexeme());
+                scan(s.superclass(), facts, nested);
+                for (var method : s.methods()) {
+                    scanFunction(method, facts);
+                }
+            }
+            case Stmt.Import s -> {}
+        }
+    }
+
+    private static void scanFunction(Stmt.Function function, Facts facts) {
+        if (function.lazy() != null) {
+            // Without a tree, assume the body reads and writes every name in it.
+            facts.captured.addAll(function.lazy().freeNames());
+            facts.assigned.addAll(function.lazy().freeNames());
+            facts.globals.addAll(function.lazy().freeNames());
+            return;
+        }
+
+        for (var statement : function.body()) {
+            scan(statement, facts, true);
+        }
+    }
+
+    private static void scan(Expr expr, Facts facts, boolean nested) {
+        switch (expr) {
+            case null -> {}
+            case Expr.Literal e -> {}
+            case Expr.This e -> {}
+            case Expr.Super e -> {}
+            case Expr.Variable e -> {
+                if (nested) facts.captured.add(e.identifier().lexeme());
+            }
+            case Expr.Assign e -> {
+                facts.assigned.add(e.name().lexeme());
+                if (e.binding().isGlobal()) facts.globals.add(e.name().lexeme());
+                if (nested) facts.captured.add(e.name().lexeme());
+                scan(e.value(), facts, nested);
+            }
+            case Expr.Call e -> {
+                if (!nested) facts.calls = true;
+                scan(e.callee(), facts, nested);
+                for (var argument : e.arguments()) {
+                    scan(argument, facts, nested);
+                }
+            }
+            case Expr.Binary e -> {
+                scan(e.left(), facts, nested);
+                scan(e.right(), facts, nested);
+            }
+            case Expr.Logical e -> {
+                scan(e.left(), facts, nested);
+                scan(e.right(), facts, nested);
+            }
+            case Expr.Unary e -> scan(e.right(), facts, nested);
+            case Expr.Grouping e -> scan(e.expr(), facts, nested);
+            case Expr.Get e -> scan(e.object(), facts, nested);
+            case Expr.Set e -> {
+                scan(e.object(), facts, nested);
+                scan(e.value(), facts, nested);
+            }
+            case Expr.Invariant e -> scan(e.expr(), facts, nested);
+            case Expr.Inline e -> scan(e.call(), facts, nested);
+            case Expr.Parameter e -> {}
+            case Expr.Branch e -> scan(e.condition(), facts, nested);
+        }
+    }
+}
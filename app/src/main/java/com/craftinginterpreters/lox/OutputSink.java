@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Where {@code print} writes. Output is buffered and only reaches the
+ * underlying channel when the buffer fills or the sink is flushed, so
+ * callers must {@link #flush()} before exiting or handing control back to a
+ * user.
+ */
+final class OutputSink implements Flushable {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final BufferedWriter writer;
+    private final char[] digits = new char[Numbers.MAX_CHARS];
+
+    OutputSink(Writer writer, int bufferSize) {
+        this.writer = new BufferedWriter(writer, bufferSize);
+    }
+
+    static OutputSink stdout(int bufferSize) {
+        var channel = new FileOutputStream(FileDescriptor.out).getChannel();
+        return new OutputSink(newWriter(channel, System.out.charset()), bufferSize);
+    }
+
+    static OutputSink file(Path path, int bufferSize) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new OutputSink(newWriter(channel, Charset.defaultCharset()), bufferSize);
+    }
+
+    // Replace what the charset can't encode, as PrintStream does.
+    private static Writer newWriter(WritableByteChannel channel, Charset charset) {
+        var encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return Channels.newWriter(channel, encoder, -1);
+    }
+
+    synchronized void println(Object value) {
+        try {
+            if (value instanceof Double d && Numbers.isPlainInteger(d)) {
+                var start = Numbers.getChars(d, digits);
+                writer.write(digits, start, digits.length - start);
+            } else {
+                writer.write(Interpreter.stringify(value));
+            }
+            writer.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
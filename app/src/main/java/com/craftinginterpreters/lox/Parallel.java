@@ -0,0 +1,167 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork-join natives over arrays. Each leaf task runs the function on its own
+ * {@link Interpreter#worker() worker} interpreter. Functions that
+ * {@link Purity} can't prove side-effect free run sequentially on the
+ * calling interpreter instead.
+ */
+final class Parallel {
+    private static final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private Parallel() {}
+
+    static void define(Environment globals) {
+        Natives.define(globals, new NativeFunction("parallelMap", 2, true,
+                (interpreter, arguments) -> {
+                    var array = Natives.checkArray(arguments.get(0));
+                    var function = Natives.checkFunction(arguments.get(1), 1);
+                    var results = new Object[array.length()];
+                    forEach(interpreter, array, function, results);
+                    return new LoxArray(new ArrayList<>(Arrays.asList(results)));
+                }));
+        Natives.define(globals, new NativeFunction("parallelForEach", 2, true,
+                (interpreter, arguments) -> {
+                    var array = Natives.checkArray(arguments.get(0));
+                    var function = Natives.checkFunction(arguments.get(1), 1);
+                    forEach(interpreter, array, function, null);
+                    return null;
+                }));
+        Natives.define(globals, new NativeFunction("parallelReduce", 3, true,
+                (interpreter, arguments) -> {
+                    var array = Natives.checkArray(arguments.get(0));
+                    var function = Natives.checkFunction(arguments.get(1), 2);
+                    return reduce(interpreter, array, function, arguments.get(2));
+                }));
+    }
+
+    private static void forEach(Interpreter interpreter, LoxArray array,
+                                LoxCallable function, Object[] results) {
+        var elements = array.elements();
+        if (!Purity.isPure(interpreter, function)) {
+            for (int i = 0; i < elements.size(); i++) {
+                var result = function.call(interpreter,
+                        Collections.singletonList(elements.get(i)));
+                if (results != null) results[i] = result;
+            }
+            return;
+        }
+
+        var snapshot = elements.toArray();
+        pool.invoke(new ForEachTask(interpreter, function, snapshot, results,
+                0, snapshot.length, grain(snapshot.length)));
+    }
+
+    private static Object reduce(Interpreter interpreter, LoxArray array,
+                                 LoxCallable function, Object initial) {
+        var elements = array.elements();
+        if (elements.isEmpty()) return initial;
+
+        if (!Purity.isPure(interpreter, function)) {
+            var accumulator = initial;
+            for (var element : elements) {
+                accumulator = function.call(interpreter,
+                        Arrays.asList(accumulator, element));
+            }
+            return accumulator;
+        }
+
+        var snapshot = elements.toArray();
+        var combined = pool.invoke(new ReduceTask(interpreter, function, snapshot,
+                0, snapshot.length, grain(snapshot.length)));
+        return function.call(interpreter, Arrays.asList(initial, combined));
+    }
+
+    private static int grain(int length) {
+        return Math.max(1, length / (pool.getParallelism() * 4));
+    }
+
+    private static final class ForEachTask extends RecursiveAction {
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final Object[] elements;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        ForEachTask(Interpreter interpreter, LoxCallable function, Object[] elements,
+                    Object[] results, int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.elements = elements;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                var worker = interpreter.worker();
+                for (int i = from; i < to; i++) {
+                    var result = function.call(worker,
+                            Collections.singletonList(elements[i]));
+                    if (results != null) results[i] = result;
+                }
+                return;
+            }
+
+            var middle = (from + to) >>> 1;
+            invokeAll(
+                    new ForEachTask(interpreter, function, elements, results,
+                            from, middle, grain),
+                    new ForEachTask(interpreter, function, elements, results,
+                            middle, to, grain));
+        }
+    }
+
+    private static final class ReduceTask extends RecursiveTask<Object> {
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final Object[] elements;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        ReduceTask(Interpreter interpreter, LoxCallable function, Object[] elements,
+                   int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Object compute() {
+            var worker = interpreter.worker();
+            if (to - from <= grain) {
+                var accumulator = elements[from];
+                for (int i = from + 1; i < to; i++) {
+                    accumulator = function.call(worker,
+                            Arrays.asList(accumulator, elements[i]));
+                }
+                return accumulator;
+            }
+
+            var middle = (from + to) >>> 1;
+            var left = new ReduceTask(interpreter, function, elements,
+                    from, middle, grain);
+            left.fork();
+            var right = new ReduceTask(interpreter, function, elements,
+                    middle, to, grain).compute();
+            return function.call(worker, Arrays.asList(left.join(), right));
+        }
+    }
+}
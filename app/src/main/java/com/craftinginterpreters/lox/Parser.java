@@ -1,18 +1,92 @@
 package com.craftinginterpreters.lox;
 
 import java.util.*;
-import java.util.function.Supplier;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
 class Parser {
     private static class ParseError extends RuntimeException {}
 
+    /** How tightly an operator binds, loosest first. */
+    private enum Precedence {
+        NONE, ASSIGNMENT, OR, AND, EQUALITY, COMPARISON, TERM, FACTOR, UNARY, CALL;
+
+        private static final Precedence[] values = values();
+
+        /** The next tighter level, for the right operand of a left-associative operator. */
+        Precedence next() {
+            return values[ordinal() + 1];
+        }
+    }
+
+    @FunctionalInterface
+    private interface Prefix {
+        Expr parse(Parser parser, Token token);
+    }
+
+    @FunctionalInterface
+    private interface Infix {
+        Expr parse(Parser parser, Expr left, Token token);
+    }
+
+    /**
+     * How a token type parses where an expression starts and where one
+     * continues, and how tightly it binds in the second case.
+     */
+    private record Rule(Prefix prefix, Infix infix, Precedence precedence) {}
+
+    private static final Rule[] rules = new Rule[TokenType.values().length];
+
+    static {
+        Arrays.fill(rules, new Rule(null, null, Precedence.NONE));
+        rule(LEFT_PAREN, Parser::grouping, Parser::call, Precedence.CALL);
+        rule(DOT, null, Parser::property, Precedence.CALL);
+        rule(MINUS, Parser::unary, Parser::binary, Precedence.TERM);
+        rule(PLUS, null, Parser::binary, Precedence.TERM);
+        rule(SLASH, null, Parser::binary, Precedence.FACTOR);
+        rule(STAR, null, Parser::binary, Precedence.FACTOR);
+        rule(BANG, Parser::unary, null, Precedence.NONE);
+        rule(BANG_EQUAL, null, Parser::binary, Precedence.EQUALITY);
+        rule(EQUAL, null, Parser::assignment, Precedence.ASSIGNMENT);
+        rule(EQUAL_EQUAL, null, Parser::binary, Precedence.EQUALITY);
+        rule(GREATER, null, Parser::binary, Precedence.COMPARISON);
+        rule(GREATER_EQUAL, null, Parser::binary, Precedence.COMPARISON);
+        rule(LESS, null, Parser::binary, Precedence.COMPARISON);
+        rule(LESS_EQUAL, null, Parser::binary, Precedence.COMPARISON);
+        rule(IDENTIFIER, Parser::variable, null, Precedence.NONE);
+        rule(STRING, Parser::literal, null, Precedence.NONE);
+        rule(NUMBER, Parser::literal, null, Precedence.NONE);
+        rule(AND, null, Parser::logical, Precedence.AND);
+        rule(OR, null, Parser::logical, Precedence.OR);
+        rule(FALSE, Parser::literal, null, Precedence.NONE);
+        rule(TRUE, Parser::literal, null, Precedence.NONE);
+        rule(NIL, Parser::literal, null, Precedence.NONE);
+        rule(SUPER, Parser::superAccess, null, Precedence.NONE);
+        rule(THIS, Parser::self, null, Precedence.NONE);
+    }
+
+    private static void rule(TokenType type, Prefix prefix, Infix infix, Precedence precedence) {
+        rules[type.ordinal()] = new Rule(prefix, infix, precedence);
+    }
+
     private final List<Token> tokens;
+    private final boolean lazy;
     private int current = 0;
+    private final ErrorReporter errors;
+    private boolean hadError = false;
+
+    Parser(List<Token> tokens, ErrorReporter errors) {
+        this(tokens, false, errors);
+    }
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, boolean lazy, ErrorReporter errors) {
         this.tokens = tokens;
+        this.lazy = lazy;
+        this.errors = errors;
+    }
+
+    boolean hadError() {
+        return hadError;
     }
 
     List<Stmt> parse() {
@@ -25,6 +99,7 @@ class Parser {
 
     private Stmt declaration() {
         try {
+            if (match(CLASS)) return classDeclaration();
             if (match(FUN)) return function("function");
             if (match(VAR)) return varDeclaration();
 
@@ -35,18 +110,44 @@ class Parser {
         }
     }
 
+    private Stmt classDeclaration() {
+        var name = consume(IDENTIFIER, "Expect class name.");
+
+        Expr.Variable superclass = null;
+        if (match(LESS)) {
+            consume(IDENTIFIER, "Expect superclass name.");
+            superclass = new Expr.Variable(previous());
+        }
+
+        consume(LEFT_BRACE, "Expect '{' before class body.");
+
+        var methods = new ArrayList<Stmt.Function>();
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            methods.add(function("method"));
+        }
+
+        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        return new Stmt.Class(name, superclass, methods);
+    }
+
     private Stmt statement() {
         if (match(FOR)) return forStatement();
         if (match(IF)) return ifStatement();
+        if (match(IMPORT)) return importStatement();
         if (match(PRINT)) return printStatement();
         if (match(RETURN)) return returnStatement();
         if (match(WHILE)) return whileStatement();
+        if (match(YIELD)) return yieldStatement();
         if (match(LEFT_BRACE)) return new Stmt.Block(block());
         return expressionStatement();
     }
 
     private Stmt forStatement() {
+        var keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
+        if (checkAhead(0, VAR) && checkAhead(1, IDENTIFIER) && checkAhead(2, IN)) {
+            return forInStatement(keyword);
+        }
 
         Stmt initializer;
         if (match(SEMICOLON)) {
@@ -85,6 +186,17 @@ class Parser {
         return body;
     }
 
+    private Stmt forInStatement(Token keyword) {
+        consume(VAR, "Expect 'var' in for-in clause.");
+        var name = consume(IDENTIFIER, "Expect loop variable name.");
+        consume(IN, "Expect 'in' after loop variable.");
+        var iterable = expression();
+        consume(RIGHT_PAREN, "Expect ')' after for-in clause.");
+
+        var body = statement();
+        return new Stmt.ForIn(keyword, name, iterable, body);
+    }
+
     private Stmt ifStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         var test = expression();
@@ -99,6 +211,13 @@ class Parser {
         return new Stmt.If(test, then, _else);
     }
 
+    private Stmt importStatement() {
+        var keyword = previous();
+        var path = consume(STRING, "Expect module path after 'import'.");
+        consume(SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import(keyword, path);
+    }
+
     private Stmt expressionStatement() {
         var expr = expression();
         consume(SEMICOLON, "Expect ';' after expression.");
@@ -121,10 +240,27 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        if (lazy) return new Stmt.Function(name, parameters, null, skipBody(name));
+
         var body = block();
         return new Stmt.Function(name, parameters, body);
     }
 
+    private LazyBody skipBody(Token name) {
+        var start = current;
+        var depth = 1;
+        while (!isAtEnd()) {
+            var type = advance().type();
+            if (type == LEFT_BRACE) {
+                depth++;
+            } else if (type == RIGHT_BRACE && --depth == 0) {
+                return new LazyBody(name, tokens.subList(start, current - 1), previous());
+            }
+        }
+
+        throw error(peek(), "Expect '}' after block.");
+    }
+
     private List<Stmt> block() {
         var statements = new ArrayList<Stmt>();
 
@@ -136,52 +272,11 @@ class Parser {
         return statements;
     }
 
-    private Expr assignment() {
-        var expr = or();
-
-        if (match(EQUAL)) {
-            var equals = previous();
-            var value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                var name = ((Expr.Variable) expr).identifier();
-                return new Expr.Assign(name, value);
-            }
-
-            error(equals, "Invalid assignment target.");
-        }
-
-        return expr;
-    }
-
-    private Expr or() {
-        var expr = and();
-
-        while (match(OR)) {
-            var operator = previous();
-            var right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr and() {
-        var expr = equality();
-
-        while (match(AND)) {
-            var operator = previous();
-            var right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
     private Stmt printStatement() {
+        var keyword = previous();
         var value = expression();
         consume(SEMICOLON, "Expect ';' after value.");
-        return new Stmt.Print(value);
+        return new Stmt.Print(keyword, value);
     }
 
     private Stmt returnStatement() {
@@ -195,6 +290,17 @@ class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt yieldStatement() {
+        var keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after yielded value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
     private Stmt varDeclaration() {
         Token name = consume(IDENTIFIER, "Expect variable name.");
 
@@ -217,51 +323,56 @@ class Parser {
     }
 
     private Expr expression() {
-        return assignment();
-    }
-
-    private Expr equality() {
-        return parseLeftAssociative(this::comparison, BANG_EQUAL, EQUAL_EQUAL);
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
 
-    private Expr comparison() {
-        return parseLeftAssociative(this::term,
-                GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
-    }
+    /**
+     * Parses an expression whose operators all bind at least as tightly as
+     * {@code precedence}: a prefix parselet for the first token, then infix
+     * parselets for as long as the next token's rule binds tightly enough.
+     */
+    private Expr parsePrecedence(Precedence precedence) {
+        var prefix = rules[peek().type().ordinal()].prefix();
+        if (prefix == null) throw error(peek(), "Expect expression.");
+        var expr = prefix.parse(this, advance());
 
-    private Expr term() {
-        return parseLeftAssociative(this::factor, MINUS, PLUS);
+        while (true) {
+            var rule = rules[peek().type().ordinal()];
+            if (rule.precedence().compareTo(precedence) < 0) return expr;
+            expr = rule.infix().parse(this, expr, advance());
+        }
     }
 
-    private Expr factor() {
-        return parseLeftAssociative(this::unary, SLASH, STAR);
-    }
+    private Expr assignment(Expr target, Token equals) {
+        // Right-associative: the value may itself be an assignment.
+        var value = parsePrecedence(Precedence.ASSIGNMENT);
 
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            var operator = previous();
-            var right = unary();
-            return new Expr.Unary(operator, right);
+        if (target instanceof Expr.Variable variable) {
+            return new Expr.Assign(variable.identifier(), value);
+        } else if (target instanceof Expr.Get get) {
+            return new Expr.Set(get.object(), get.name(), value);
         }
 
-        return call();
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr call() {
-        var expr = primary();
+    private Expr logical(Expr left, Token operator) {
+        var right = parsePrecedence(rules[operator.type().ordinal()].precedence().next());
+        return new Expr.Logical(left, operator, right);
+    }
 
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else {
-              break;
-            }
-        }
+    private Expr binary(Expr left, Token operator) {
+        var right = parsePrecedence(rules[operator.type().ordinal()].precedence().next());
+        return new Expr.Binary(left, operator, right);
+    }
 
-        return expr;
+    private Expr unary(Token operator) {
+        var right = parsePrecedence(Precedence.UNARY);
+        return new Expr.Unary(operator, right);
     }
 
-    private Expr finishCall(Expr callee) {
+    private Expr call(Expr callee, Token leftParen) {
         var arguments = new ArrayList<Expr>();
         if (!check(RIGHT_PAREN)) {
             do {
@@ -278,48 +389,44 @@ class Parser {
         return new Expr.Call(callee, paren, arguments);
     }
 
-    private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal());
-        }
-
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
+    private Expr property(Expr object, Token dot) {
+        var name = consume(IDENTIFIER, "Expect property name after '.'.");
+        return new Expr.Get(object, name);
+    }
 
-        if (match(LEFT_PAREN)) {
-            var expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
+    private Expr literal(Token token) {
+        return switch (token.type()) {
+            case FALSE -> new Expr.Literal(false);
+            case TRUE -> new Expr.Literal(true);
+            case NIL -> new Expr.Literal(null);
+            default -> new Expr.Literal(token.literal());
+        };
+    }
 
-        throw error(peek(), "Expect expression.");
+    private Expr superAccess(Token keyword) {
+        consume(DOT, "Expect '.' after 'super'.");
+        var method = consume(IDENTIFIER, "Expect superclass method name.");
+        return new Expr.Super(keyword, method);
     }
 
-    private Expr parseLeftAssociative(Supplier<Expr> rightParse, TokenType... types) {
-        var expr = rightParse.get();
+    private Expr self(Token keyword) {
+        return new Expr.This(keyword);
+    }
 
-        while (match(types)) {
-            var operator = previous();
-            var right = rightParse.get();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+    private Expr variable(Token name) {
+        return new Expr.Variable(name);
+    }
 
-        return expr;
+    private Expr grouping(Token paren) {
+        var expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
-        }
-        return false;
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
     }
 
     private Token consume(TokenType type, String message) {
@@ -333,6 +440,11 @@ class Parser {
         return peek().type() == type;
     }
 
+    private boolean checkAhead(int distance, TokenType type) {
+        var index = current + distance;
+        return index < tokens.size() && tokens.get(index).type() == type;
+    }
+
     private Token advance() {
         if (!isAtEnd()) current++;
         return previous();
@@ -351,7 +463,8 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        hadError = true;
+        errors.error(token, message);
         return new ParseError();
     }
 
@@ -367,13 +480,15 @@ class Parser {
             case VAR:
             case FOR:
             case IF:
+            case IMPORT:
             case WHILE:
             case PRINT:
             case RETURN:
+            case YIELD:
                 return;
             }
-        }
 
-        advance();
+            advance();
+        }
     }
 }
@@ -0,0 +1,118 @@
+package com.craftinginterpreters.lox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Call counts and type feedback carried over from one run of a script to
+ * the next, in a file named by the hash of the script's source.
+ *
+ * <p>Type feedback is the quickened bytecode of every compiled function;
+ * it is copied into the function's chunk when the chunk is compiled, so
+ * the first call already runs specialized instructions. Functions that
+ * were called at least {@link #HOT_CALLS} times last run are compiled on
+ * the fork-join pool as soon as they are declared, instead of on their
+ * first call. The IR tier infers its types statically and only gains the
+ * early compilation.
+ *
+ * <p>Functions are identified by the path of their module relative to the
+ * script's directory, function name and line. Saved code that doesn't match what the function compiles to now
+ * is ignored.
+ */
+final class ProfileData {
+    static final long HOT_CALLS = 100;
+
+    private record Entry(long calls, int[] code) {}
+
+    private final Path file;
+    private final Path root;
+    private final Map<String, Entry> saved;
+    private final Map<String, Stmt.Function> functions = new ConcurrentHashMap<>();
+
+    private ProfileData(Path file, Path root, Map<String, Entry> saved) {
+        this.file = file;
+        this.root = root;
+        this.saved = saved;
+    }
+
+    static ProfileData load(Path directory, Path script, String source) {
+        var file = directory.resolve(ModuleLoader.hash(source) + ".pgo");
+        var saved = new HashMap<String, Entry>();
+        try {
+            for (var line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                var fields = line.split("\t");
+                if (fields.length != 3) continue;
+                saved.put(fields[0], new Entry(Long.parseLong(fields[1]), parseCode(fields[2])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // A missing or damaged profile is the same as a cold start.
+            saved.clear();
+        }
+        var root = script.toAbsolutePath().normalize().getParent();
+        return new ProfileData(file, root, saved);
+    }
+
+    /** Notes a function declaration and applies what the last run learned about it. */
+    void declared(Module module, Stmt.Function function) {
+        var key = name(module) + ":" + function.name().lexeme() + ":" +
+                function.name().line();
+        if (functions.putIfAbsent(key, function) != null) return;
+
+        var entry = saved.get(key);
+        if (entry == null) return;
+
+        var compilation = function.compilation();
+        if (entry.code() != null) compilation.preload(entry.code());
+        if (entry.calls() >= HOT_CALLS) {
+            ForkJoinPool.commonPool().execute(() -> compilation.prepare(function));
+        }
+    }
+
+    // Same-named modules in different directories must not share entries.
+    private String name(Module module) {
+        var path = module.path.toAbsolutePath().normalize();
+        if (root != null && path.getRoot().equals(root.getRoot())) {
+            path = root.relativize(path);
+        }
+        return path.toString().replace(File.separatorChar, '/');
+    }
+
+    void save() throws IOException {
+        var lines = new ArrayList<String>();
+        for (var entry : functions.entrySet()) {
+            var compilation = entry.getValue().compilation();
+            lines.add(entry.getKey() + "\t" + compilation.calls() + "\t" +
+                    formatCode(compilation.quickenedCode()));
+        }
+
+        Files.createDirectories(file.getParent());
+        var temporary = Files.createTempFile(file.getParent(), "pgo", ".tmp");
+        Files.write(temporary, lines, StandardCharsets.UTF_8);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String formatCode(int[] code) {
+        if (code == null) return "-";
+        var joiner = new StringJoiner(",");
+        for (var word : code) joiner.add(Integer.toString(word));
+        return joiner.toString();
+    }
+
+    private static int[] parseCode(String text) {
+        if (text.equals("-")) return null;
+        var words = text.split(",");
+        var code = new int[words.length];
+        for (var i = 0; i < words.length; i++) {
+            code[i] = Integer.parseInt(words[i]);
+        }
+        return code;
+    }
+}
@@ -0,0 +1,103 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples an interpreter's {@link CallStack} from a timer thread. Samples
+ * are aggregated as collapsed stacks, one {@code frame;frame;frame count}
+ * line per distinct stack, which flame graph tools read directly. The
+ * profiler starts paused and only samples between {@link #resume} and
+ * {@link #pause}.
+ */
+final class Profiler {
+    private final CallStack callStack;
+    private final long intervalNanos;
+    private final Map<String, Long> stacks = new HashMap<>();
+    private final Map<String, Long> self = new HashMap<>();
+    private final Map<String, Long> total = new HashMap<>();
+    private final Thread thread;
+    private long samples = 0;
+    private volatile boolean running = true;
+    private volatile boolean sampling = false;
+
+    private Profiler(CallStack callStack, long intervalMicros) {
+        this.callStack = callStack;
+        this.intervalNanos = TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+        this.thread = new Thread(this::run, "jlox-profiler");
+        thread.setDaemon(true);
+    }
+
+    static Profiler start(CallStack callStack, long intervalMicros) {
+        var profiler = new Profiler(callStack, intervalMicros);
+        profiler.thread.start();
+        return profiler;
+    }
+
+    void resume() {
+        sampling = true;
+    }
+
+    void pause() {
+        sampling = false;
+    }
+
+    void stop() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            if (sampling) sample(callStack.frames());
+        }
+    }
+
+    private void sample(List<CallStack.Frame> frames) {
+        if (frames.isEmpty()) return;
+        samples++;
+
+        var stack = new StringJoiner(";");
+        var seen = new HashSet<String>();
+        for (var frame : frames) {
+            stack.add(frame.function() + ":" + frame.line());
+            if (seen.add(frame.function())) total.merge(frame.function(), 1L, Long::sum);
+        }
+        stacks.merge(stack.toString(), 1L, Long::sum);
+        self.merge(frames.get(frames.size() - 1).function(), 1L, Long::sum);
+    }
+
+    void writeCollapsed(Path path) throws IOException {
+        var lines = new ArrayList<String>();
+        stacks.forEach((stack, count) -> lines.add(stack + " " + count));
+        Collections.sort(lines);
+        Files.write(path, lines);
+    }
+
+    void printTable(PrintStream out) {
+        out.printf("%8s %8s  %s (%d samples)%n", "self", "total", "function", samples);
+
+        var functions = new ArrayList<>(total.keySet());
+        functions.sort(Comparator.comparing((String f) -> self.getOrDefault(f, 0L))
+                .reversed().thenComparing(f -> -total.get(f)));
+        for (var function : functions) {
+            out.printf("%7.2f%% %7.2f%%  %s%n",
+                    percent(self.getOrDefault(function, 0L)),
+                    percent(total.get(function)), function);
+        }
+    }
+
+    private double percent(long count) {
+        return samples == 0 ? 0 : 100.0 * count / samples;
+    }
+}
@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * The inline cache of one property access site. It remembers how the
+ * property resolved for up to {@link #MAX_ENTRIES} shapes; a site that sees
+ * more shapes than that is megamorphic and keeps using the entries it has,
+ * falling back to a shape lookup for the rest.
+ */
+final class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    // A field slot, a method, or for stores that add a field, the new shape.
+    private record Entry(Shape shape, int slot, LoxFunction method, Shape next) {}
+
+    private volatile Entry[] entries = new Entry[0];
+
+    Object get(LoxInstance instance, Token name) {
+        var shape = instance.shape;
+        for (var entry : entries) {
+            if (entry.shape == shape) {
+                if (entry.method != null) return entry.method.bind(instance);
+                return instance.fields[entry.slot];
+            }
+        }
+
+        var slot = shape.slot(name.lexeme());
+        if (slot >= 0) {
+            add(new Entry(shape, slot, null, null));
+            return instance.fields[slot];
+        }
+
+        var method = instance.klass.findMethod(name.lexeme());
+        if (method != null) {
+            add(new Entry(shape, -1, method, null));
+            return method.bind(instance);
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
+    }
+
+    void set(LoxInstance instance, Token name, Object value) {
+        var shape = instance.shape;
+        for (var entry : entries) {
+            if (entry.shape == shape) {
+                if (entry.next != null) instance.transition(entry.next);
+                instance.fields[entry.slot] = value;
+                return;
+            }
+        }
+
+        var slot = shape.slot(name.lexeme());
+        if (slot >= 0) {
+            add(new Entry(shape, slot, null, null));
+        } else {
+            var next = shape.with(name.lexeme());
+            slot = shape.size();
+            add(new Entry(shape, slot, null, next));
+            instance.transition(next);
+        }
+        instance.fields[slot] = value;
+    }
+
+    private void add(Entry entry) {
+        var current = entries;
+        if (current.length == MAX_ENTRIES) return;
+
+        var extended = Arrays.copyOf(current, current.length + 1);
+        extended[current.length] = entry;
+        entries = extended;
+    }
+}
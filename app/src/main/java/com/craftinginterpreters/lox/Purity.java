@@ -0,0 +1,280 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Conservatively decides whether calling a function can write state that
+ * outlives the call: globals, captured variables, arrays, or output. Callees
+ * bound to globals are followed transitively; anything it can't see through
+ * is treated as impure. A pure function can still read such state, which
+ * {@link #readsOuterState} checks for.
+ */
+final class Purity implements Expr.Visitor<Void>, Stmt.Visitor {
+    private final Interpreter interpreter;
+    private final Set<Stmt.Function> visited =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private int depth = 0;
+    private boolean initializer = false;
+    private boolean pure = true;
+    private boolean readsOuter = false;
+
+    private Purity(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    static boolean isPure(Interpreter interpreter, LoxCallable callable) {
+        return new Purity(interpreter).check(callable);
+    }
+
+    /**
+     * Whether a pure function can read a global other than a function or
+     * class, or a variable captured from an enclosing function, so that
+     * the same arguments may give different results. Impure functions
+     * aren't checked.
+     */
+    static boolean readsOuterState(Interpreter interpreter, LoxCallable callable) {
+        var purity = new Purity(interpreter);
+        return purity.check(callable) && purity.readsOuter;
+    }
+
+    private boolean check(LoxCallable callable) {
+        if (callable instanceof NativeFunction function) return function.pure();
+        if (callable instanceof Memo memo) return check(memo.function());
+        if (!(callable instanceof LoxFunction function)) return false;
+
+        checkFunction(function.declaration(), false);
+        return pure;
+    }
+
+    private void checkFunction(Stmt.Function function, boolean isInitializer) {
+        if (!visited.add(function)) return;
+
+        var enclosingDepth = depth;
+        var enclosingInitializer = initializer;
+        depth = 0;
+        initializer = isInitializer;
+        check(function.body());
+        depth = enclosingDepth;
+        initializer = enclosingInitializer;
+    }
+
+    private void check(Iterable<Stmt> statements) {
+        for (var statement : statements) {
+            if (!pure) return;
+            statement.accept(this);
+        }
+    }
+
+    private void check(Expr expr) {
+        if (pure) expr.accept(this);
+    }
+
+    @Override
+    public Void visit(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Logical expr) {
+        check(expr.left());
+        check(expr.right());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Unary expr) {
+        check(expr.right());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Assign expr) {
+        var binding = expr.binding();
+        if (binding.isGlobal() || binding.depth > depth) pure = false;
+        check(expr.value());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Binary expr) {
+        check(expr.left());
+        check(expr.right());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Call expr) {
+        if (expr.callee() instanceof Expr.Variable variable &&
+                variable.binding().isGlobal()) {
+            var callee = interpreter.globals.getAt(0, variable.identifier().lexeme());
+            if (callee instanceof NativeFunction function) {
+                if (!function.pure()) pure = false;
+            } else if (callee instanceof LoxFunction function) {
+                checkFunction(function.declaration(), false);
+            } else if (callee instanceof Memo memo &&
+                    memo.function() instanceof LoxFunction function) {
+                checkFunction(function.declaration(), false);
+            } else if (callee instanceof LoxClass klass) {
+                // Constructing is pure if init only sets fields on the new instance.
+                var init = klass.findMethod("init");
+                if (init != null) checkFunction(init.declaration(), true);
+            } else {
+                pure = false;
+            }
+        } else {
+            pure = false;
+        }
+
+        for (var argument : expr.arguments()) {
+            check(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Get expr) {
+        check(expr.object());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Set expr) {
+        if (!(initializer && expr.object() instanceof Expr.This)) pure = false;
+        check(expr.object());
+        check(expr.value());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Grouping expr) {
+        check(expr.expr());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Variable expr) {
+        var binding = expr.binding();
+        if (binding.isGlobal()) {
+            var value = interpreter.globals.getAt(0, expr.identifier().lexeme());
+            if (!(value instanceof LoxCallable)) readsOuter = true;
+        } else if (binding.depth > depth) {
+            readsOuter = true;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Invariant expr) {
+        check(expr.expr());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Inline expr) {
+        check(expr.call());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Parameter expr) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Branch expr) {
+        check(expr.condition());
+        return null;
+    }
+
+    @Override
+    public void visit(Stmt.Expression stmt) {
+        check(stmt.expr());
+    }
+
+    @Override
+    public void visit(Stmt.If stmt) {
+        check(stmt.test());
+        stmt.then().accept(this);
+        if (stmt._else() != null) stmt._else().accept(this);
+    }
+
+    @Override
+    public void visit(Stmt.Block stmt) {
+        depth++;
+        check(stmt.statements());
+        depth--;
+    }
+
+    @Override
+    public void visit(Stmt.Class stmt) {
+        // Methods only run when called, and calls through properties are
+        // already treated as impure.
+    }
+
+    @Override
+    public void visit(Stmt.Function stmt) {
+        depth++;
+        check(stmt.body());
+        depth--;
+    }
+
+    @Override
+    public void visit(Stmt.Import stmt) {
+        pure = false;
+    }
+
+    @Override
+    public void visit(Stmt.Print stmt) {
+        pure = false;
+    }
+
+    @Override
+    public void visit(Stmt.Return stmt) {
+        if (stmt.value() != null) check(stmt.value());
+    }
+
+    @Override
+    public void visit(Stmt.Var stmt) {
+        if (stmt.expr() != null) check(stmt.expr());
+    }
+
+    @Override
+    public void visit(Stmt.While stmt) {
+        check(stmt.test());
+        stmt.body().accept(this);
+    }
+
+    @Override
+    public void visit(Stmt.CountedLoop stmt) {
+        stmt.loop().accept(this);
+    }
+
+    @Override
+    public void visit(Stmt.Covered stmt) {
+        stmt.stmt().accept(this);
+    }
+
+    @Override
+    public void visit(Stmt.ForIn stmt) {
+        // Advancing a generator or sequence runs code this can't see.
+        pure = false;
+    }
+
+    @Override
+    public void visit(Stmt.Yield stmt) {
+        // A function that yields returns a new generator on every call.
+        pure = false;
+    }
+}
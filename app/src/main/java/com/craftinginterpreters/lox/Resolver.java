@@ -3,20 +3,39 @@ package com.craftinginterpreters.lox;
 import java.util.*;
 
 final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
-    private final Interpreter interpreter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
-
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private ClassType currentClass = ClassType.NONE;
+    private Map<String, Integer> enclosing = Map.of();
+    private ErrorReporter errors;
+
+    /**
+     * What a lazily compiled function body can see of the code around it:
+     * the depth of each enclosing local it might refer to, counted from the
+     * scope the function was declared in.
+     */
+    record Context(Map<String, Integer> enclosing, FunctionType function,
+                   ClassType klass) {}
+
+    enum FunctionType {
+        NONE,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
     }
 
-    private enum FunctionType {
+    enum ClassType {
         NONE,
-        FUNCTION
+        CLASS,
+        SUBCLASS
+    }
+
+    void resolve(List<Stmt> statements, ErrorReporter errors) {
+        this.errors = errors;
+        resolve(statements);
     }
 
-    void resolve(List<Stmt> statements) {
+    private void resolve(List<Stmt> statements) {
         for (var statement : statements) {
             resolve(statement);
         }
@@ -26,7 +45,34 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
         stmt.accept(this);
     }
 
+    void resolveLazy(List<Token> params, List<Stmt> body, Context context,
+                     ErrorReporter errors) {
+        this.errors = errors;
+        enclosing = context.enclosing();
+        currentFunction = context.function();
+        currentClass = context.klass();
+
+        beginScope();
+        for (Token param : params) {
+            declare(param);
+            define(param);
+        }
+        resolve(body);
+        endScope();
+    }
+
     private void resolveFunction(Stmt.Function function, FunctionType type) {
+        if (function.lazy() != null) {
+            var visible = new HashMap<String, Integer>();
+            for (var name : function.lazy().freeNames()) {
+                var depth = depthOf(name);
+                if (depth != null) visible.put(name, depth);
+            }
+            function.lazy().prepare(function.params(),
+                    new Context(visible, type, currentClass));
+            return;
+        }
+
         var enclosingFunction = currentFunction;
         currentFunction = type;
 
@@ -53,7 +99,7 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
 
         var scope = scopes.peek();
         if (scope.containsKey(name.lexeme())) {
-            Lox.error(name, "Already a variable with this name in this scope.");
+            errors.error(name, "Already a variable with this name in this scope.");
         }
         scope.put(name.lexeme(), false);
     }
@@ -63,13 +109,21 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
         scopes.peek().put(name.lexeme(), true);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private void resolveLocal(Binding binding, Token name) {
+        var depth = depthOf(name.lexeme());
+        if (depth != null) binding.depth = depth;
+    }
+
+    private Integer depthOf(String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme())) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if (scopes.get(i).containsKey(name)) {
+                return scopes.size() - 1 - i;
             }
         }
+
+        var depth = enclosing.get(name);
+        if (depth != null) return scopes.size() + depth;
+        return null;
     }
 
     private void resolve(Expr expr) {
@@ -97,7 +151,7 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
     @Override
     public Void visit(Expr.Assign expr) {
         resolve(expr.value());
-        resolveLocal(expr, expr.name());
+        resolveLocal(expr.binding(), expr.name());
         return null;
     }
 
@@ -119,6 +173,42 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
         return null;
     }
 
+    @Override
+    public Void visit(Expr.Get expr) {
+        resolve(expr.object());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Set expr) {
+        resolve(expr.value());
+        resolve(expr.object());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.This expr) {
+        if (currentClass == ClassType.NONE) {
+            errors.error(expr.keyword(), "Can't use 'this' outside of a class.");
+            return null;
+        }
+
+        resolveLocal(expr.binding(), expr.keyword());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Super expr) {
+        if (currentClass == ClassType.NONE) {
+            errors.error(expr.keyword(), "Can't use 'super' outside of a class.");
+        } else if (currentClass != ClassType.SUBCLASS) {
+            errors.error(expr.keyword(), "Can't use 'super' in a class with no superclass.");
+        }
+
+        resolveLocal(expr.binding(), expr.keyword());
+        return null;
+    }
+
     @Override
     public Void visit(Expr.Grouping expr) {
         resolve(expr.expr());
@@ -129,10 +219,33 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
     public Void visit(Expr.Variable expr) {
         if (!scopes.isEmpty() &&
                 scopes.peek().get(expr.identifier().lexeme()) == Boolean.FALSE) {
-            Lox.error(expr.identifier(),
+            errors.error(expr.identifier(),
                     "Can't read local variable in its own initializer.");
         }
-        resolveLocal(expr, expr.identifier());
+        resolveLocal(expr.binding(), expr.identifier());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Invariant expr) {
+        resolve(expr.expr());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Inline expr) {
+        resolve(expr.call());
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Parameter expr) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Expr.Branch expr) {
+        resolve(expr.condition());
         return null;
     }
 
@@ -155,6 +268,43 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
         endScope();
     }
 
+    @Override
+    public void visit(Stmt.Class stmt) {
+        var enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+
+        declare(stmt.name());
+        define(stmt.name());
+
+        if (stmt.superclass() != null) {
+            if (stmt.name().lexeme().equals(stmt.superclass().identifier().lexeme())) {
+                errors.error(stmt.superclass().identifier(),
+                        "A class can't inherit from itself.");
+            }
+
+            currentClass = ClassType.SUBCLASS;
+            resolve(stmt.superclass());
+
+            beginScope();
+            scopes.peek().put("super", true);
+        }
+
+        beginScope();
+        scopes.peek().put("this", true);
+
+        for (var method : stmt.methods()) {
+            var declaration = method.name().lexeme().equals("init")
+                    ? FunctionType.INITIALIZER
+                    : FunctionType.METHOD;
+            resolveFunction(method, declaration);
+        }
+
+        endScope();
+        if (stmt.superclass() != null) endScope();
+
+        currentClass = enclosingClass;
+    }
+
     @Override
     public void visit(Stmt.Function stmt) {
         declare(stmt.name());
@@ -163,6 +313,13 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
         resolveFunction(stmt, FunctionType.FUNCTION);
     }
 
+    @Override
+    public void visit(Stmt.Import stmt) {
+        if (!scopes.isEmpty() || currentFunction != FunctionType.NONE) {
+            errors.error(stmt.keyword(), "Can only import at top level.");
+        }
+    }
+
     @Override
     public void visit(Stmt.Print stmt) {
         resolve(stmt.expr());
@@ -171,10 +328,14 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
     @Override
     public void visit(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword(), "Can't return from top-level code");
+            errors.error(stmt.keyword(), "Can't return from top-level code");
         }
 
         if (stmt.value() != null) {
+            if (currentFunction == FunctionType.INITIALIZER) {
+                errors.error(stmt.keyword(), "Can't return a value from an initializer.");
+            }
+
             resolve(stmt.value());
         }
     }
@@ -194,27 +355,35 @@ final class Resolver implements Expr.Visitor<Void>, Stmt.Visitor {
         resolve(stmt.body());
     }
 
-    public Interpreter interpreter() {
-        return interpreter;
+    @Override
+    public void visit(Stmt.CountedLoop stmt) {
+        resolve(stmt.loop());
     }
 
     @Override
-    public boolean equals(Object obj) {
-        if (obj == this) return true;
-        if (obj == null || obj.getClass() != this.getClass()) return false;
-        var that = (Resolver) obj;
-        return Objects.equals(this.interpreter, that.interpreter);
+    public void visit(Stmt.Covered stmt) {
+        resolve(stmt.stmt());
     }
 
     @Override
-    public int hashCode() {
-        return Objects.hash(interpreter);
+    public void visit(Stmt.ForIn stmt) {
+        resolve(stmt.iterable());
+
+        beginScope();
+        declare(stmt.name());
+        define(stmt.name());
+        resolve(stmt.body());
+        endScope();
     }
 
     @Override
-    public String toString() {
-        return "Resolver[" +
-                "interpreter=" + interpreter + ']';
-    }
+    public void visit(Stmt.Yield stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            errors.error(stmt.keyword(), "Can't yield from top-level code.");
+        } else if (currentFunction == FunctionType.INITIALIZER) {
+            errors.error(stmt.keyword(), "Can't yield from an initializer.");
+        }
 
+        if (stmt.value() != null) resolve(stmt.value());
+    }
 }
@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+
+/**
+ * The result of concatenating Lox strings. Concatenation only links the two
+ * halves; the characters are copied once, when the rope is first flattened
+ * by {@link #toString()}. A Lox string value is either a {@link String} or a
+ * rope, so code that needs the characters should treat both as
+ * {@link CharSequence}.
+ */
+final class Rope implements CharSequence {
+    private static final int MIN_LENGTH = 64;
+
+    private final int length;
+    private CharSequence left;
+    private CharSequence right;
+    private volatile String flat;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.length = left.length() + right.length();
+        this.left = left;
+        this.right = right;
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() == 0) return right;
+        if (right.length() == 0) return left;
+        if (left.length() + right.length() < MIN_LENGTH) {
+            if (Metrics.ENABLED) Metrics.INSTANCE.stringBuilt(left.length() + right.length());
+            return left.toString().concat(right.toString());
+        }
+        return new Rope(left, right);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        var result = flat;
+        if (result != null) return result;
+
+        synchronized (this) {
+            if (flat != null) return flat;
+
+            var builder = new StringBuilder(length);
+            var pending = new ArrayDeque<CharSequence>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                var next = pending.pop();
+                if (next instanceof Rope rope) {
+                    rope.expand(builder, pending);
+                } else {
+                    builder.append(next);
+                }
+            }
+
+            flat = builder.toString();
+            if (Metrics.ENABLED) Metrics.INSTANCE.stringBuilt(length);
+            left = null;
+            right = null;
+            return flat;
+        }
+    }
+
+    // Another thread may be flattening a shared inner rope, so its halves
+    // are read under its own lock; it's either still split or already flat.
+    private synchronized void expand(StringBuilder builder, ArrayDeque<CharSequence> pending) {
+        if (flat != null) {
+            builder.append(flat);
+        } else {
+            pending.push(right);
+            pending.push(left);
+        }
+    }
+}
@@ -1,10 +1,42 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An error in a running script. Instead of a Java stack trace, which is
+ * never captured, it collects a Lox one as it unwinds: each function call
+ * it passes through, and finally the interpreter that reports it, adds
+ * the frame it leaves and the line that frame was at.
+ */
 class RuntimeError extends RuntimeException {
     final Token token;
+    // Innermost first; the innermost frame is at the line of the token.
+    private List<CallStack.Frame> trace;
 
     RuntimeError(Token token, String message) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
+
+        if (Metrics.ENABLED) Metrics.INSTANCE.runtimeErrorThrown();
+        var event = new LoxEvents.RuntimeError();
+        if (event.shouldCommit()) {
+            event.message = message;
+            event.line = token.line();
+            event.commit();
+        }
+    }
+
+    /** Records leaving {@code function}, or the top level if null, which was at {@code line}. */
+    void unwound(String function, int line) {
+        if (trace == null) {
+            trace = new ArrayList<>();
+            line = token.line();
+        }
+        trace.add(new CallStack.Frame(function, line));
+    }
+
+    List<CallStack.Frame> trace() {
+        return trace == null ? List.of() : trace;
     }
 }
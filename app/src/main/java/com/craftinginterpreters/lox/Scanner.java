@@ -17,6 +17,8 @@ class Scanner {
         keywords.put("for", FOR);
         keywords.put("fun", FUN);
         keywords.put("if", IF);
+        keywords.put("import", IMPORT);
+        keywords.put("in", IN);
         keywords.put("nil", NIL);
         keywords.put("or", OR);
         keywords.put("print", PRINT);
@@ -26,6 +28,7 @@ class Scanner {
         keywords.put("true", TRUE);
         keywords.put("var", VAR);
         keywords.put("while", WHILE);
+        keywords.put("yield", YIELD);
     }
 
     private final String source;
@@ -33,9 +36,11 @@ class Scanner {
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private final ErrorReporter errors;
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter errors) {
         this.source = source;
+        this.errors = errors;
     }
 
     List<Token> scanTokens() {
@@ -121,7 +126,7 @@ class Scanner {
             } else if (isAlpha(c)) {
                 identifier();
             } else {
-                Lox.error(line, "Unexpected character.");
+                errors.error(line, "Unexpected character.");
             }
             break;
         }
@@ -156,14 +161,14 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            errors.error(line, "Unterminated string.");
             return;
         }
 
         advance();
 
         var value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        addToken(STRING, Symbols.intern(value));
     }
 
     private boolean match(char expected) {
@@ -212,6 +217,8 @@ class Scanner {
 
     private void addToken(TokenType type, Object literal) {
         var text = source.substring(start, current);
+        // Names are keys of environments and shapes, where interned keys match on identity.
+        if (type == IDENTIFIER || type == THIS || type == SUPER) text = Symbols.intern(text);
         tokens.add(new Token(type, text, literal, line));
     }
 }
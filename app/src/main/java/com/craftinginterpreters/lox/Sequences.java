@@ -0,0 +1,220 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * Lazy sequences for for-in loops. None of these natives reads anything
+ * when called: each returns a sequence that pulls from its source only as
+ * a loop asks for values, so a pipeline holds one value at a time however
+ * long its input is. Looping over a sequence again starts over from its
+ * source.
+ *
+ * <ul>
+ *   <li>{@code lines(path)} is the lines of a UTF-8 text file, without
+ *       their line terminators.
+ *   <li>{@code map(iterable, fn)} is {@code fn(value)} for each value.
+ *   <li>{@code filter(iterable, fn)} is the values {@code fn} returns a
+ *       truthy result for.
+ *   <li>{@code take(iterable, n)} is the first {@code n} values; it closes
+ *       its source once it has them, which stops a generator.
+ * </ul>
+ */
+final class Sequences {
+    private record Lines(String path) implements LoxIterable {
+        @Override
+        public Cursor iterator(Interpreter interpreter) {
+            BufferedReader reader;
+            try {
+                reader = Files.newBufferedReader(Path.of(path), StandardCharsets.UTF_8);
+            } catch (IOException | InvalidPathException e) {
+                throw new NativeError("Can't read '" + path + "': " + message(e));
+            }
+
+            return new Cursor() {
+                private String line;
+
+                @Override
+                public boolean advance() {
+                    try {
+                        line = reader.readLine();
+                        return line != null;
+                    } catch (IOException | UncheckedIOException e) {
+                        throw new NativeError("Can't read '" + path + "': " + message(e));
+                    }
+                }
+
+                @Override
+                public Object current() {
+                    return line;
+                }
+
+                @Override
+                public void close() {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // Nothing more was going to be read from it.
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "<lines " + path + ">";
+        }
+    }
+
+    private record Mapped(LoxIterable source, Token site, LoxCallable function)
+            implements LoxIterable {
+        @Override
+        public Cursor iterator(Interpreter interpreter) {
+            var values = source.iterator(interpreter);
+            return new Cursor() {
+                private Object current;
+
+                @Override
+                public boolean advance() {
+                    if (!values.advance()) return false;
+                    current = interpreter.call(site, function,
+                            Collections.singletonList(values.current()));
+                    return true;
+                }
+
+                @Override
+                public Object current() {
+                    return current;
+                }
+
+                @Override
+                public void close() {
+                    values.close();
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "<sequence map>";
+        }
+    }
+
+    private record Filtered(LoxIterable source, Token site, LoxCallable function)
+            implements LoxIterable {
+        @Override
+        public Cursor iterator(Interpreter interpreter) {
+            var values = source.iterator(interpreter);
+            return new Cursor() {
+                @Override
+                public boolean advance() {
+                    while (values.advance()) {
+                        var keep = interpreter.call(site, function,
+                                Collections.singletonList(values.current()));
+                        if (Interpreter.isTruthy(keep)) return true;
+                    }
+                    return false;
+                }
+
+                @Override
+                public Object current() {
+                    return values.current();
+                }
+
+                @Override
+                public void close() {
+                    values.close();
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "<sequence filter>";
+        }
+    }
+
+    private record Taken(LoxIterable source, int count) implements LoxIterable {
+        @Override
+        public Cursor iterator(Interpreter interpreter) {
+            var values = source.iterator(interpreter);
+            return new Cursor() {
+                private int taken = 0;
+                private boolean closed = false;
+
+                @Override
+                public boolean advance() {
+                    if (taken < count && values.advance()) {
+                        taken++;
+                        return true;
+                    }
+                    close();
+                    return false;
+                }
+
+                @Override
+                public Object current() {
+                    return values.current();
+                }
+
+                @Override
+                public void close() {
+                    if (closed) return;
+                    closed = true;
+                    values.close();
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "<sequence take>";
+        }
+    }
+
+    private Sequences() {}
+
+    static void define(Environment globals) {
+        Natives.define(globals, new NativeFunction("lines", 1, false,
+                (interpreter, arguments) -> {
+                    if (arguments.get(0) instanceof CharSequence path) {
+                        return new Lines(path.toString());
+                    }
+                    throw new NativeError("Expected a path string.");
+                }));
+        Natives.define(globals, new NativeFunction("map", 2, false,
+                (interpreter, arguments) -> new Mapped(checkIterable(arguments.get(0)),
+                        site(interpreter, "map"), Natives.checkFunction(arguments.get(1), 1))));
+        Natives.define(globals, new NativeFunction("filter", 2, false,
+                (interpreter, arguments) -> new Filtered(checkIterable(arguments.get(0)),
+                        site(interpreter, "filter"), Natives.checkFunction(arguments.get(1), 1))));
+        Natives.define(globals, new NativeFunction("take", 2, false,
+                (interpreter, arguments) -> {
+                    if (arguments.get(1) instanceof Double d && d >= 0 &&
+                            d == Math.floor(d) && d <= Integer.MAX_VALUE) {
+                        return new Taken(checkIterable(arguments.get(0)), d.intValue());
+                    }
+                    throw new NativeError("Count must be a non-negative integer.");
+                }));
+    }
+
+    // Where a pipeline's function was passed in, for errors it raises later.
+    private static Token site(Interpreter interpreter, String name) {
+        return new Token(TokenType.IDENTIFIER, name, null, interpreter.callStack().line());
+    }
+
+    private static LoxIterable checkIterable(Object value) {
+        if (value instanceof LoxIterable iterable) return iterable;
+        throw new NativeError("Expected an array, generator or sequence.");
+    }
+
+    private static String message(Throwable e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+}
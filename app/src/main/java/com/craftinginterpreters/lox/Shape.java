@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A hidden class: the layout of an instance's fields. Instances that gained
+ * the same fields in the same order share one shape, and adding a field
+ * moves an instance along a cached transition to the next shape. Each class
+ * has its own root shape, so a shape also identifies the instance's class.
+ */
+final class Shape implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new ConcurrentHashMap<>();
+
+    private Shape(Map<String, Integer> slots) {
+        this.slots = slots;
+    }
+
+    static Shape root() {
+        return new Shape(Map.of());
+    }
+
+    int slot(String name) {
+        var slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    Shape with(String name) {
+        return transitions.computeIfAbsent(name, this::extend);
+    }
+
+    private Shape extend(String name) {
+        var extended = new HashMap<>(slots);
+        extended.put(name, slots.size());
+        return new Shape(extended);
+    }
+}
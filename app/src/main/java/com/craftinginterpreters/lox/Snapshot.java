@@ -0,0 +1,160 @@
+package com.craftinginterpreters.lox;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The globals a prelude script left behind, written with Java serialization
+ * so a later run can restore them instead of executing the prelude again.
+ * Function and class values keep their syntax trees and closures.
+ *
+ * <p>Everything that belongs to the running interpreter rather than the
+ * program is written as a placeholder and bound again on restore: the
+ * globals environment itself, so closures see the new interpreter's
+ * globals, and natives, which are looked up by name. Inline caches and
+ * compiled code start out empty, ropes are flattened, and the names and
+ * literals of restored code are interned. Other restored strings are
+ * runtime data and, like strings built at runtime, aren't.
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x4c4f5853;
+    private static final int VERSION = 1;
+
+    private enum Globals { INSTANCE }
+
+    private record Native(String name) implements Serializable {}
+
+    // One per replaced object: placeholders that were equal would be
+    // written once and restored as one shared object.
+    private record EmptyCache() implements Serializable {}
+
+    private record EmptyCompilation() implements Serializable {}
+
+    private Snapshot() {}
+
+    static void write(Path file, Environment globals) throws IOException {
+        var values = new HashMap<String, Object>();
+        for (var entry : globals.values().entrySet()) {
+            if (entry.getValue() instanceof NativeFunction function &&
+                    function.name().equals(entry.getKey())) {
+                continue;
+            }
+            values.put(entry.getKey(), entry.getValue());
+        }
+
+        var temp = Files.createTempFile(file.toAbsolutePath().getParent(), "snapshot", ".tmp");
+        try (var out = new Writer(new BufferedOutputStream(Files.newOutputStream(temp)), globals)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeObject(values);
+        } catch (NotSerializableException e) {
+            Files.deleteIfExists(temp);
+            throw unsaveable(values, globals, e);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Names the global that refers to the value that couldn't be written,
+    // by writing each global on its own until one fails the same way.
+    private static IOException unsaveable(Map<String, Object> values, Environment globals,
+                                          NotSerializableException e) {
+        var kind = describe(e.getMessage());
+        for (var entry : new TreeMap<>(values).entrySet()) {
+            try (var out = new Writer(OutputStream.nullOutputStream(), globals)) {
+                out.writeObject(entry.getValue());
+            } catch (NotSerializableException failure) {
+                return new NotSerializableException("global '" + entry.getKey() +
+                        "' refers to " + describe(failure.getMessage()) +
+                        ", which can't be saved.");
+            } catch (IOException failure) {
+                // Not the one; keep looking.
+            }
+        }
+        return new NotSerializableException(kind + " can't be saved.");
+    }
+
+    private static String describe(String className) {
+        if (Memo.class.getName().equals(className)) return "a memo() wrapper";
+        if (Generator.class.getName().equals(className)) return "a generator";
+        if (Coroutines.Channel.class.getName().equals(className)) return "a channel";
+        if (EventLoop.Socket.class.getName().equals(className)) return "a socket";
+        if (className.startsWith(Sequences.class.getName() + "$")) return "a sequence";
+        return "a " + className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    static void read(Path file, Environment globals) throws IOException {
+        try (var in = new Reader(new BufferedInputStream(Files.newInputStream(file)), globals)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new InvalidObjectException("Not a jlox snapshot.");
+            }
+            @SuppressWarnings("unchecked")
+            var values = (Map<String, Object>) in.readObject();
+            values.forEach(globals::define);
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+
+    private static final class Writer extends ObjectOutputStream {
+        private final Environment globals;
+
+        Writer(OutputStream out, Environment globals) throws IOException {
+            super(out);
+            this.globals = globals;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj == globals) return Globals.INSTANCE;
+            return switch (obj) {
+                case NativeFunction function -> new Native(function.name());
+                case Rope rope -> rope.toString();
+                case PropertyCache cache -> new EmptyCache();
+                case Compilation compilation -> new EmptyCompilation();
+                default -> obj;
+            };
+        }
+    }
+
+    private static final class Reader extends ObjectInputStream {
+        private final Environment globals;
+
+        Reader(InputStream in, Environment globals) throws IOException {
+            super(in);
+            this.globals = globals;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            return switch (obj) {
+                case Globals g -> globals;
+                // Names and literals in restored code, like scanned ones.
+                case Token token -> new Token(token.type(), Symbols.intern(token.lexeme()),
+                        token.literal() instanceof String string
+                                ? Symbols.intern(string) : token.literal(),
+                        token.line());
+                case Expr.Literal(String string) -> new Expr.Literal(Symbols.intern(string));
+                case EmptyCache cache -> new PropertyCache();
+                case EmptyCompilation compilation -> new Compilation();
+                case Native(var name) -> {
+                    if (globals.values().get(name) instanceof NativeFunction function) {
+                        yield function;
+                    }
+                    throw new InvalidObjectException("Unknown native '" + name + "'.");
+                }
+                default -> obj;
+            };
+        }
+    }
+}
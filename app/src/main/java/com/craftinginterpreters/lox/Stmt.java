@@ -1,19 +1,28 @@
 package com.craftinginterpreters.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-sealed interface Stmt permits Stmt.Expression, Stmt.If, Stmt.Block, Stmt.Function,
-        Stmt.Print, Stmt.Return, Stmt.Var, Stmt.While {
+sealed interface Stmt extends Serializable
+    permits Stmt.Expression, Stmt.If, Stmt.Block, Stmt.Class, Stmt.Function,
+        Stmt.Import, Stmt.Print, Stmt.Return, Stmt.Var, Stmt.While,
+        Stmt.CountedLoop, Stmt.Covered, Stmt.ForIn, Stmt.Yield {
 
     interface Visitor {
         void visit(Expression stmt);
         void visit(If stmt);
         void visit(Block stmt);
+        void visit(Class stmt);
         void visit(Function stmt);
+        void visit(Import stmt);
         void visit(Print stmt);
         void visit(Return stmt);
         void visit(Var stmt);
         void visit(While stmt);
+        void visit(CountedLoop stmt);
+        void visit(Covered stmt);
+        void visit(ForIn stmt);
+        void visit(Yield stmt);
     }
 
     void accept(Visitor visitor);
@@ -39,14 +48,43 @@ sealed interface Stmt permits Stmt.Expression, Stmt.If, Stmt.Block, Stmt.Functio
         }
     }
 
-    record Function(Token name, List<Token> params, List<Stmt> body) implements Stmt {
+    record Class(Token name, Expr.Variable superclass, List<Function> methods)
+            implements Stmt {
         @Override
         public void accept(Visitor visitor) {
             visitor.visit(this);
         }
     }
 
-    record Print(Expr expr) implements Stmt {
+    record Function(Token name, List<Token> params, List<Stmt> body, LazyBody lazy,
+                    Compilation compilation) implements Stmt {
+        Function(Token name, List<Token> params, List<Stmt> body) {
+            this(name, params, body, null);
+        }
+
+        Function(Token name, List<Token> params, List<Stmt> body, LazyBody lazy) {
+            this(name, params, body, lazy, new Compilation());
+        }
+
+        @Override
+        public List<Stmt> body() {
+            return lazy == null ? body : lazy.statements();
+        }
+
+        @Override
+        public void accept(Visitor visitor) {
+            visitor.visit(this);
+        }
+    }
+
+    record Import(Token keyword, Token path) implements Stmt {
+        @Override
+        public void accept(Visitor visitor) {
+            visitor.visit(this);
+        }
+    }
+
+    record Print(Token keyword, Expr expr) implements Stmt {
         @Override
         public void accept(Visitor visitor) {
             visitor.visit(this);
@@ -67,7 +105,49 @@ sealed interface Stmt permits Stmt.Expression, Stmt.If, Stmt.Block, Stmt.Functio
         }
     }
 
-    record While(Expr test, Stmt body) implements Stmt {
+    record While(Expr test, Stmt body, int invariants) implements Stmt {
+        While(Expr test, Stmt body) {
+            this(test, body, 0);
+        }
+
+        @Override
+        public void accept(Visitor visitor) {
+            visitor.visit(this);
+        }
+    }
+
+    /**
+     * A while loop the optimizer recognized as stepping a local counter by
+     * a constant toward an invariant limit. {@code body} is the loop body
+     * without the step; {@code loop} is the original loop, run instead when
+     * the counter or limit turn out not to be numbers.
+     */
+    record CountedLoop(Expr.Variable counter, Token operator, Expr limit, double step,
+                       Stmt.Block body, While loop) implements Stmt {
+        @Override
+        public void accept(Visitor visitor) {
+            visitor.visit(this);
+        }
+    }
+
+    /** A statement instrumented for coverage: counts its runs under {@code probe}. */
+    record Covered(Stmt stmt, int probe) implements Stmt {
+        @Override
+        public void accept(Visitor visitor) {
+            visitor.visit(this);
+        }
+    }
+
+    /** Runs {@code body} once per value of an array, generator or sequence. */
+    record ForIn(Token keyword, Token name, Expr iterable, Stmt body) implements Stmt {
+        @Override
+        public void accept(Visitor visitor) {
+            visitor.visit(this);
+        }
+    }
+
+    /** Hands a value to the loop consuming a generator, which makes the function one. */
+    record Yield(Token keyword, Expr value) implements Stmt {
         @Override
         public void accept(Visitor visitor) {
             visitor.visit(this);
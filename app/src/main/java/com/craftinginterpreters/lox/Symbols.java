@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * The engine's table of interned strings: string literals, identifiers,
+ * and string constants folded at compile time. Equal interned strings are
+ * the same object, so comparing them, or looking one up in a map keyed by
+ * another, succeeds on identity without comparing characters, and their
+ * hashes are already computed.
+ *
+ * <p>The table is a concurrent weak interner, so scanners and compiles on
+ * different threads don't wait on each other, and a string only stays in
+ * the table while code or a value still refers to it. Old REPL input and
+ * the scripts a {@link LoxContextPool} has finished with are reclaimed
+ * along with their strings.
+ */
+final class Symbols {
+    private static final Interner<String> table = Interners.newWeakInterner();
+
+    private Symbols() {}
+
+    static String intern(String string) {
+        return table.intern(string);
+    }
+}
@@ -1,6 +1,9 @@
 package com.craftinginterpreters.lox;
 
-record Token(TokenType type, String lexeme, Object literal, int line) {
+import java.io.Serializable;
+
+record Token(TokenType type, String lexeme, Object literal, int line)
+        implements Serializable {
     @Override
     public String toString() {
         return type + " " + lexeme + " " + literal;
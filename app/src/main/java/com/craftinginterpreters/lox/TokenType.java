@@ -11,8 +11,8 @@ enum TokenType {
 
     IDENTIFIER, STRING, NUMBER,
 
-    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, IN, NIL, OR,
+    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, YIELD,
 
     EOF
 }
@@ -0,0 +1,309 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a {@link Chunk} for one call of its function. Locals and the operand
+ * stack are NaN-boxed {@link Value}s in {@code long[]}s, each with an
+ * {@code Object[]} beside it for values that are objects, so arithmetic,
+ * comparisons and truth tests work on primitives. Values are boxed only
+ * when they leave the VM: as call arguments and results, globals, printed
+ * values, and for the generic slow paths shared with the interpreter.
+ */
+final class VM {
+    private VM() {}
+
+    static Object run(Interpreter interpreter, Chunk chunk, List<Object> arguments) {
+        var code = chunk.code();
+        var constants = chunk.constants();
+        var values = chunk.values();
+        var globals = interpreter.globals;
+
+        var locals = new long[chunk.locals()];
+        var localObjects = new Object[chunk.locals()];
+        for (var i = 0; i < arguments.size(); i++) {
+            var argument = arguments.get(i);
+            locals[i] = Value.encode(argument);
+            localObjects[i] = argument;
+        }
+        var stack = new long[chunk.stackSize()];
+        var objects = new Object[chunk.stackSize()];
+
+        var sp = 0;
+        var pc = 0;
+        while (true) {
+            var op = code[pc];
+            switch (op) {
+                case Op.CONST -> {
+                    stack[sp] = values[code[pc + 1]];
+                    objects[sp++] = constants[code[pc + 1]];
+                    pc += 2;
+                }
+                case Op.NIL -> {
+                    stack[sp++] = Value.NIL;
+                    pc++;
+                }
+                case Op.TRUE -> {
+                    stack[sp++] = Value.TRUE;
+                    pc++;
+                }
+                case Op.FALSE -> {
+                    stack[sp++] = Value.FALSE;
+                    pc++;
+                }
+                case Op.POP -> {
+                    objects[--sp] = null;
+                    pc++;
+                }
+                case Op.GET_LOCAL -> {
+                    var slot = code[pc + 1];
+                    stack[sp] = locals[slot];
+                    objects[sp++] = localObjects[slot];
+                    pc += 2;
+                }
+                case Op.SET_LOCAL -> {
+                    var slot = code[pc + 1];
+                    locals[slot] = stack[sp - 1];
+                    localObjects[slot] = objects[sp - 1];
+                    pc += 2;
+                }
+                case Op.GET_GLOBAL -> {
+                    var value = globals.get((Token) constants[code[pc + 1]]);
+                    stack[sp] = Value.encode(value);
+                    objects[sp++] = value;
+                    pc += 2;
+                }
+                case Op.SET_GLOBAL -> {
+                    globals.assign((Token) constants[code[pc + 1]],
+                            Value.decode(stack[sp - 1], objects[sp - 1]));
+                    pc += 2;
+                }
+                case Op.ADD, Op.SUBTRACT, Op.MULTIPLY, Op.DIVIDE,
+                        Op.LESS, Op.LESS_EQUAL, Op.GREATER, Op.GREATER_EQUAL -> {
+                    if (Value.isNumber(stack[sp - 2]) && Value.isNumber(stack[sp - 1])) {
+                        code[pc] = Op.numeric(op);
+                    } else if (op == Op.ADD && objects[sp - 2] instanceof CharSequence &&
+                            objects[sp - 1] instanceof CharSequence) {
+                        code[pc] = Op.ADD_STR;
+                    }
+                    var result = Interpreter.binary((Token) constants[code[pc + 1]],
+                            Value.decode(stack[sp - 2], objects[sp - 2]),
+                            Value.decode(stack[sp - 1], objects[sp - 1]));
+                    objects[--sp] = null;
+                    stack[sp - 1] = Value.encode(result);
+                    objects[sp - 1] = result;
+                    pc += 2;
+                }
+                case Op.ADD_NUM -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right)) {
+                        stack[--sp - 1] = Value.number(Value.asNumber(left) + Value.asNumber(right));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.ADD;
+                    }
+                }
+                case Op.ADD_STR -> {
+                    if (objects[sp - 2] instanceof CharSequence left &&
+                            objects[sp - 1] instanceof CharSequence right) {
+                        objects[--sp] = null;
+                        stack[sp - 1] = Value.OBJECT;
+                        objects[sp - 1] = Rope.concat(left, right);
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.ADD;
+                    }
+                }
+                case Op.SUBTRACT_NUM -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right)) {
+                        stack[--sp - 1] = Value.number(Value.asNumber(left) - Value.asNumber(right));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.SUBTRACT;
+                    }
+                }
+                case Op.MULTIPLY_NUM -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right)) {
+                        stack[--sp - 1] = Value.number(Value.asNumber(left) * Value.asNumber(right));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.MULTIPLY;
+                    }
+                }
+                case Op.DIVIDE_NUM -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right)) {
+                        stack[--sp - 1] = Value.number(Value.asNumber(left) / Value.asNumber(right));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.DIVIDE;
+                    }
+                }
+                case Op.LESS_NUM -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right)) {
+                        stack[--sp - 1] = Value.bool(Value.asNumber(left) < Value.asNumber(right));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.LESS;
+                    }
+                }
+                case Op.LESS_EQUAL_NUM -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right)) {
+                        stack[--sp - 1] = Value.bool(Value.asNumber(left) <= Value.asNumber(right));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.LESS_EQUAL;
+                    }
+                }
+                case Op.GREATER_NUM -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right)) {
+                        stack[--sp - 1] = Value.bool(Value.asNumber(left) > Value.asNumber(right));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.GREATER;
+                    }
+                }
+                case Op.GREATER_EQUAL_NUM -> {
+                    var left = stack[sp - 2];
+                    var right = stack[sp - 1];
+                    if (Value.isNumber(left) && Value.isNumber(right)) {
+                        stack[--sp - 1] = Value.bool(Value.asNumber(left) >= Value.asNumber(right));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.GREATER_EQUAL;
+                    }
+                }
+                case Op.EQUAL, Op.NOT_EQUAL -> {
+                    var equal = Value.isEqual(stack[sp - 2], objects[sp - 2],
+                            stack[sp - 1], objects[sp - 1]);
+                    objects[--sp] = null;
+                    stack[sp - 1] = Value.bool(equal == (op == Op.EQUAL));
+                    objects[sp - 1] = null;
+                    pc++;
+                }
+                case Op.NOT -> {
+                    stack[sp - 1] = Value.bool(Value.isFalsey(stack[sp - 1]));
+                    objects[sp - 1] = null;
+                    pc++;
+                }
+                case Op.NEGATE -> {
+                    if (Value.isNumber(stack[sp - 1])) code[pc] = Op.NEGATE_NUM;
+                    var result = Interpreter.unary((Token) constants[code[pc + 1]],
+                            Value.decode(stack[sp - 1], objects[sp - 1]));
+                    stack[sp - 1] = Value.encode(result);
+                    objects[sp - 1] = result;
+                    pc += 2;
+                }
+                case Op.NEGATE_NUM -> {
+                    if (Value.isNumber(stack[sp - 1])) {
+                        stack[sp - 1] = Value.number(-Value.asNumber(stack[sp - 1]));
+                        pc += 2;
+                    } else {
+                        code[pc] = Op.NEGATE;
+                    }
+                }
+                case Op.JUMP -> pc = code[pc + 1];
+                case Op.JUMP_IF_FALSE -> {
+                    if (Value.isFalsey(stack[--sp])) {
+                        pc = code[pc + 1];
+                    } else {
+                        pc += 2;
+                    }
+                    objects[sp] = null;
+                }
+                case Op.AND, Op.OR -> {
+                    if (Value.isFalsey(stack[sp - 1]) == (op == Op.AND)) {
+                        pc = code[pc + 1];
+                    } else {
+                        objects[--sp] = null;
+                        pc += 2;
+                    }
+                }
+                case Op.CALL -> {
+                    var count = code[pc + 1];
+                    var callArguments = new ArrayList<Object>(count);
+                    for (var i = sp - count; i < sp; i++) {
+                        callArguments.add(Value.decode(stack[i], objects[i]));
+                        objects[i] = null;
+                    }
+                    sp -= count;
+                    var result = interpreter.call((Token) constants[code[pc + 2]],
+                            Value.decode(stack[sp - 1], objects[sp - 1]), callArguments);
+                    stack[sp - 1] = Value.encode(result);
+                    objects[sp - 1] = result;
+                    pc += 3;
+                }
+                case Op.PRINT -> {
+                    interpreter.out().println(Value.decode(stack[--sp], objects[sp]));
+                    objects[sp] = null;
+                    pc++;
+                }
+                case Op.RETURN -> {
+                    return Value.decode(stack[sp - 1], objects[sp - 1]);
+                }
+                case Op.JUMP_UNLESS_LOCAL_CONST -> {
+                    var constant = code[pc + 3];
+                    if (compare(code[pc + 1], locals[code[pc + 2]], localObjects[code[pc + 2]],
+                            values[constant], constants[constant], constants[code[pc + 5]])) {
+                        pc += 6;
+                    } else {
+                        pc = code[pc + 4];
+                    }
+                }
+                case Op.JUMP_UNLESS_LOCAL_LOCAL -> {
+                    if (compare(code[pc + 1], locals[code[pc + 2]], localObjects[code[pc + 2]],
+                            locals[code[pc + 3]], localObjects[code[pc + 3]], constants[code[pc + 5]])) {
+                        pc += 6;
+                    } else {
+                        pc = code[pc + 4];
+                    }
+                }
+                case Op.ADD_LOCAL_CONST -> {
+                    var slot = code[pc + 1];
+                    var constant = code[pc + 2];
+                    if (Value.isNumber(locals[slot])) {
+                        locals[slot] = Value.number(Value.asNumber(locals[slot]) +
+                                Value.asNumber(values[constant]));
+                    } else {
+                        var result = Interpreter.binary((Token) constants[code[pc + 3]],
+                                Value.decode(locals[slot], localObjects[slot]), constants[constant]);
+                        locals[slot] = Value.encode(result);
+                        localObjects[slot] = result;
+                    }
+                    pc += 4;
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + op + ".");
+            }
+        }
+    }
+
+    private static boolean compare(int comparison, long left, Object leftObject,
+                                   long right, Object rightObject, Object operator) {
+        if (Value.isNumber(left) && Value.isNumber(right)) {
+            var a = Value.asNumber(left);
+            var b = Value.asNumber(right);
+            return switch (comparison) {
+                case Op.LESS -> a < b;
+                case Op.LESS_EQUAL -> a <= b;
+                case Op.GREATER -> a > b;
+                case Op.GREATER_EQUAL -> a >= b;
+                default -> throw new IllegalStateException("Unknown comparison " + comparison + ".");
+            };
+        }
+        return (Boolean) Interpreter.binary((Token) operator,
+                Value.decode(left, leftObject), Value.decode(right, rightObject));
+    }
+}
@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * NaN-boxed values for the bytecode VM. A number is stored as its raw
+ * bits, with every NaN collapsed to Java's canonical one. Anything else
+ * is a quiet NaN with the top payload bit set: nil, false and true by
+ * their low bits, and any other value as {@link #OBJECT}, with the
+ * object itself kept in a parallel {@code Object[]} at the same index.
+ */
+final class Value {
+    private Value() {}
+
+    private static final long QNAN = 0x7ffc000000000000L;
+    private static final long SIGN = 0x8000000000000000L;
+
+    static final long NIL = QNAN | 1;
+    static final long FALSE = QNAN | 2;
+    static final long TRUE = QNAN | 3;
+    static final long OBJECT = SIGN | QNAN;
+
+    static boolean isNumber(long value) {
+        return (value & QNAN) != QNAN;
+    }
+
+    static long number(double number) {
+        return Double.doubleToLongBits(number);
+    }
+
+    static double asNumber(long value) {
+        return Double.longBitsToDouble(value);
+    }
+
+    static long bool(boolean bool) {
+        return bool ? TRUE : FALSE;
+    }
+
+    static boolean isFalsey(long value) {
+        return value == NIL || value == FALSE;
+    }
+
+    /** Encodes a value; if the result is {@link #OBJECT}, keep the object alongside it. */
+    static long encode(Object value) {
+        if (value == null) return NIL;
+        if (value instanceof Double number) return number(number);
+        if (value instanceof Boolean bool) return bool(bool);
+        return OBJECT;
+    }
+
+    static Object decode(long value, Object object) {
+        if (isNumber(value)) return asNumber(value);
+        if (value == NIL) return null;
+        if (value == TRUE) return true;
+        if (value == FALSE) return false;
+        return object;
+    }
+
+    static boolean isEqual(long a, Object objectA, long b, Object objectB) {
+        // Numbers are compared by their canonical bits, which is what
+        // Double.equals does for the tree-walking interpreter.
+        if (a != OBJECT || b != OBJECT) return a == b;
+        return Interpreter.isEqual(objectA, objectB);
+    }
+}
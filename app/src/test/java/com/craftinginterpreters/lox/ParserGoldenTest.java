@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+/**
+ * Parses every script in {@code parser/} and checks the printed syntax
+ * tree and the reported errors against the {@code .expected} file next to
+ * it. Malformed scripts also pin down how the parser recovers.
+ */
+class ParserGoldenTest {
+    @TestFactory
+    Stream<DynamicTest> parserMatchesGoldenFiles() throws IOException, URISyntaxException {
+        var directory = Path.of(ParserGoldenTest.class.getResource("/parser").toURI());
+        List<Path> scripts;
+        try (var files = Files.list(directory)) {
+            scripts = files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+        }
+
+        return scripts.stream().map(script -> dynamicTest(script.getFileName().toString(), () -> {
+            var name = script.getFileName().toString().replaceFirst("\\.lox$", ".expected");
+            var expected = Files.readString(script.resolveSibling(name));
+            assertEquals(expected, parse(Files.readString(script)));
+        }));
+    }
+
+    private static String parse(String source) {
+        var stderr = System.err;
+        var errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        try {
+            var reporter = new ErrorReporter();
+            var tokens = new Scanner(source, reporter).scanTokens();
+            var statements = new Parser(tokens, reporter).parse();
+            return "ast:\n" + new AstPrinter().print(statements) +
+                    "errors:\n" + errors.toString(StandardCharsets.UTF_8);
+        } finally {
+            System.setErr(stderr);
+        }
+    }
+}
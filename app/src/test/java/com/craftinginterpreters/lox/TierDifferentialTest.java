@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+/**
+ * Runs every program in {@code tiers/} on the tree-walker and again with
+ * {@code --bytecode}, {@code --ir} and {@code --optimize}, and checks that
+ * each prints the same output and reports the same errors.
+ */
+class TierDifferentialTest {
+    private enum Mode { DEFAULT, BYTECODE, IR, OPTIMIZE }
+
+    @TestFactory
+    Stream<DynamicTest> tiersMatchTheTreeWalker() throws IOException, URISyntaxException {
+        var directory = Path.of(TierDifferentialTest.class.getResource("/tiers").toURI());
+        List<Path> programs;
+        try (var files = Files.list(directory)) {
+            programs = files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+        }
+
+        return programs.stream().map(program -> dynamicTest(program.getFileName().toString(), () -> {
+            var source = Files.readString(program);
+            var expected = run(program, source, Mode.DEFAULT);
+            for (var mode : List.of(Mode.BYTECODE, Mode.IR, Mode.OPTIMIZE)) {
+                assertEquals(expected, run(program, source, mode), mode + " differs");
+            }
+        }));
+    }
+
+    private static String run(Path path, String source, Mode mode) {
+        var stderr = System.err;
+        var errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        Lox.bytecode = mode == Mode.BYTECODE;
+        Lox.ir = mode == Mode.IR;
+        Lox.optimize = mode == Mode.OPTIMIZE;
+        try {
+            var output = new StringWriter();
+            var interpreter = new Interpreter(
+                    new OutputSink(output, OutputSink.DEFAULT_BUFFER_SIZE));
+            var reporter = new ErrorReporter();
+            var statements = Lox.compile(source, new Resolver(), path, reporter);
+            if (!reporter.hadError()) {
+                var module = new ModuleLoader().link(path, statements, reporter);
+                if (!reporter.hadError()) interpreter.interpret(module);
+            }
+            interpreter.out().flush();
+            return "output:\n" + output + "errors:\n" + errors.toString(StandardCharsets.UTF_8);
+        } finally {
+            Lox.bytecode = Lox.ir = Lox.optimize = false;
+            System.setErr(stderr);
+        }
+    }
+}